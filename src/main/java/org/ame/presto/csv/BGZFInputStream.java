@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+// Decompresses the BGZF blocks that start in a byte range of a file, and the blocks after them as far as
+// they are read. Every block is a gzip member with its compressed size in an extra field, so the first
+// block of the range is found by looking for a block header.
+public class BGZFInputStream
+        extends InputStream
+{
+    private static final int HEADER_SIZE = 18;
+    private static final int TRAILER_SIZE = 8;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    private static final int[] HEADER = {0x1f, 0x8b, 0x08, 0x04, -1, -1, -1, -1, -1, -1, 0x06, 0x00, 'B', 'C', 0x02, 0x00};
+
+    private final InputStream input;
+    private final long end;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] block = new byte[MAX_BLOCK_SIZE];
+    private final byte[] buffer = new byte[MAX_BLOCK_SIZE];
+    private int bufferPosition;
+    private int bufferLength;
+    // compressed position of the next block
+    private long position;
+    private long decompressedBytes;
+    private volatile long rangeLength = -1;
+    private boolean finished;
+
+    public BGZFInputStream(InputStream input, long start, long end)
+            throws IOException
+    {
+        this.input = new BufferedInputStream(requireNonNull(input, "input is null"), MAX_BLOCK_SIZE);
+        this.position = start;
+        this.end = end;
+        findBlock();
+    }
+
+    // decompressed length of the blocks that start in the range, or -1 while it is not known yet
+    public long getRangeLength()
+    {
+        return rangeLength;
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] output, int offset, int length)
+            throws IOException
+    {
+        if (length == 0) {
+            return 0;
+        }
+        while (bufferPosition == bufferLength) {
+            if (finished || !readBlock()) {
+                return -1;
+            }
+        }
+        int read = Math.min(length, bufferLength - bufferPosition);
+        System.arraycopy(buffer, bufferPosition, output, offset, read);
+        bufferPosition += read;
+        return read;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        finished = true;
+        inflater.end();
+        input.close();
+    }
+
+    private void findBlock()
+            throws IOException
+    {
+        while (position < end) {
+            input.mark(HEADER.length);
+            int matched = 0;
+            while (matched < HEADER.length) {
+                int b = input.read();
+                if (b < 0) {
+                    finish();
+                    return;
+                }
+                if (HEADER[matched] >= 0 && HEADER[matched] != b) {
+                    break;
+                }
+                matched++;
+            }
+            input.reset();
+            if (matched == HEADER.length) {
+                return;
+            }
+            input.read();
+            position++;
+        }
+        // no block starts in the range
+        finish();
+    }
+
+    private boolean readBlock()
+            throws IOException
+    {
+        if (position >= end && rangeLength < 0) {
+            rangeLength = decompressedBytes;
+        }
+        int headerLength = readFully(block, 0, HEADER_SIZE);
+        if (headerLength == 0) {
+            finish();
+            return false;
+        }
+        if (headerLength < HEADER_SIZE || !isBlockHeader(block)) {
+            throw new IOException("Invalid BGZF block at " + position);
+        }
+        int blockSize = ((block[16] & 0xFF) | (block[17] & 0xFF) << 8) + 1;
+        if (blockSize < HEADER_SIZE + TRAILER_SIZE || readFully(block, HEADER_SIZE, blockSize - HEADER_SIZE) < blockSize - HEADER_SIZE) {
+            throw new EOFException("Truncated BGZF block at " + position);
+        }
+        int expectedCrc = readInt(block, blockSize - TRAILER_SIZE);
+        int expectedSize = readInt(block, blockSize - 4);
+        inflater.reset();
+        inflater.setInput(block, HEADER_SIZE, blockSize - HEADER_SIZE - TRAILER_SIZE);
+        int size = 0;
+        try {
+            while (!inflater.finished() && size < buffer.length) {
+                int inflated = inflater.inflate(buffer, size, buffer.length - size);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += inflated;
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Invalid BGZF block at " + position, e);
+        }
+        crc.reset();
+        crc.update(buffer, 0, size);
+        if (!inflater.finished() || size != expectedSize || (int) crc.getValue() != expectedCrc) {
+            throw new IOException(format("Corrupt BGZF block at %s", position));
+        }
+        position += blockSize;
+        decompressedBytes += size;
+        bufferPosition = 0;
+        bufferLength = size;
+        return true;
+    }
+
+    private void finish()
+    {
+        finished = true;
+        if (rangeLength < 0) {
+            rangeLength = decompressedBytes;
+        }
+    }
+
+    private int readFully(byte[] bytes, int offset, int length)
+            throws IOException
+    {
+        int total = 0;
+        while (total < length) {
+            int read = input.read(bytes, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static boolean isBlockHeader(byte[] bytes)
+    {
+        for (int i = 0; i < HEADER.length; i++) {
+            if (HEADER[i] >= 0 && HEADER[i] != (bytes[i] & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] bytes, int offset)
+    {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
+    }
+}
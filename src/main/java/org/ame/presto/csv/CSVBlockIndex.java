@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import org.ame.presto.csv.CSVFieldDecoder.FieldType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+// Sparse index of a data file, kept next to it as .<name>.index. Every block covers a run of whole records,
+// with the values of its columns summarized by their smallest and largest field text and the number of nulls,
+// and optionally by a bloom filter.
+public class CSVBlockIndex
+{
+    private final long fileSize;
+    private final long fileModificationTime;
+    private final List<String> columnNames;
+    private final List<FieldType> fieldTypes;
+    private final List<Block> blocks;
+
+    @JsonCreator
+    public CSVBlockIndex(
+            @JsonProperty("fileSize") long fileSize,
+            @JsonProperty("fileModificationTime") long fileModificationTime,
+            @JsonProperty("columnNames") List<String> columnNames,
+            @JsonProperty("fieldTypes") List<FieldType> fieldTypes,
+            @JsonProperty("blocks") List<Block> blocks)
+    {
+        this.fileSize = fileSize;
+        this.fileModificationTime = fileModificationTime;
+        this.columnNames = ImmutableList.copyOf(requireNonNull(columnNames, "columnNames is null"));
+        this.fieldTypes = ImmutableList.copyOf(requireNonNull(fieldTypes, "fieldTypes is null"));
+        this.blocks = ImmutableList.copyOf(requireNonNull(blocks, "blocks is null"));
+        checkArgument(columnNames.size() == fieldTypes.size(), "columnNames and fieldTypes have different sizes");
+    }
+
+    public static String getIndexPath(String path)
+    {
+        int separator = path.lastIndexOf('/');
+        return path.substring(0, separator + 1) + "." + path.substring(separator + 1) + ".index";
+    }
+
+    // size and modification time of the data file the index was built from, an index of another version is ignored
+    @JsonProperty
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    @JsonProperty
+    public long getFileModificationTime()
+    {
+        return fileModificationTime;
+    }
+
+    @JsonProperty
+    public List<String> getColumnNames()
+    {
+        return columnNames;
+    }
+
+    // the values are compared as these types, the summaries of a column whose type changed since are not used
+    @JsonProperty
+    public List<FieldType> getFieldTypes()
+    {
+        return fieldTypes;
+    }
+
+    @JsonProperty
+    public List<Block> getBlocks()
+    {
+        return blocks;
+    }
+
+    public static class Block
+    {
+        private final long offset;
+        private final long length;
+        private final long rows;
+        private final List<String> minValues;
+        private final List<String> maxValues;
+        private final List<Long> nullCounts;
+        private final List<byte[]> bloomFilters;
+
+        @JsonCreator
+        public Block(
+                @JsonProperty("offset") long offset,
+                @JsonProperty("length") long length,
+                @JsonProperty("rows") long rows,
+                @JsonProperty("minValues") List<String> minValues,
+                @JsonProperty("maxValues") List<String> maxValues,
+                @JsonProperty("nullCounts") List<Long> nullCounts,
+                @JsonProperty("bloomFilters") List<byte[]> bloomFilters)
+        {
+            checkArgument(offset >= 0, "offset is negative");
+            checkArgument(length >= 0, "length is negative");
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+            // a column without a summary has nulls in place of its values
+            this.minValues = Collections.unmodifiableList(new ArrayList<>(requireNonNull(minValues, "minValues is null")));
+            this.maxValues = Collections.unmodifiableList(new ArrayList<>(requireNonNull(maxValues, "maxValues is null")));
+            this.nullCounts = ImmutableList.copyOf(requireNonNull(nullCounts, "nullCounts is null"));
+            // indexes built without bloom filters have none
+            this.bloomFilters = Collections.unmodifiableList(bloomFilters == null ? Collections.nCopies(nullCounts.size(), null) : new ArrayList<>(bloomFilters));
+        }
+
+        // the first record of the block starts at offset
+        @JsonProperty
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        @JsonProperty
+        public long getLength()
+        {
+            return length;
+        }
+
+        @JsonProperty
+        public long getRows()
+        {
+            return rows;
+        }
+
+        @JsonProperty
+        public List<String> getMinValues()
+        {
+            return minValues;
+        }
+
+        @JsonProperty
+        public List<String> getMaxValues()
+        {
+            return maxValues;
+        }
+
+        @JsonProperty
+        public List<Long> getNullCounts()
+        {
+            return nullCounts;
+        }
+
+        // serialized bloom filters of the values of the columns that have one
+        @JsonProperty
+        public List<byte[]> getBloomFilters()
+        {
+            return bloomFilters;
+        }
+    }
+}
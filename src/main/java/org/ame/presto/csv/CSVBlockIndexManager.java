@@ -0,0 +1,395 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.airlift.json.JsonCodec;
+import com.facebook.airlift.log.Logger;
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.predicate.Range;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.common.predicate.ValueSet;
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.SchemaTableName;
+import com.facebook.presto.spi.TableNotFoundException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.io.ByteStreams;
+import io.airlift.slice.Slice;
+import org.ame.presto.csv.CSVBlockIndex.Block;
+import org.ame.presto.csv.CSVFieldDecoder.FieldType;
+import org.ame.presto.csv.session.FileEntry;
+import org.ame.presto.csv.session.ISession;
+
+import javax.inject.Inject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static io.airlift.slice.Slices.utf8Slice;
+import static org.ame.presto.csv.CSVFieldDecoder.getValueBytes;
+import static java.util.Locale.ENGLISH;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.stream.Collectors.toList;
+
+// builds the block indexes of tables, and picks the blocks of an indexed file that can match a constraint
+public class CSVBlockIndexManager
+{
+    // longer varchar values leave the column of the block without a summary
+    private static final int MAX_VALUE_LENGTH = 256;
+    private static final Logger logger = Logger.get(CSVBlockIndexManager.class);
+
+    private final CSVClient client;
+    private final JsonCodec<CSVBlockIndex> indexCodec;
+    private final int rowsPerBlock;
+    private final double bloomFilterFpp;
+
+    @Inject
+    public CSVBlockIndexManager(CSVClient client, JsonCodec<CSVBlockIndex> indexCodec, CSVConfig config)
+    {
+        this.client = requireNonNull(client, "client is null");
+        this.indexCodec = requireNonNull(indexCodec, "indexCodec is null");
+        this.rowsPerBlock = requireNonNull(config, "config is null").getBlockIndexRows();
+        this.bloomFilterFpp = config.getBlockIndexBloomFilterFpp();
+    }
+
+    // writes the index of every uncompressed file of the table, replacing older ones
+    public void buildIndexes(String schemaName, String tableName, List<String> bloomFilterColumns)
+    {
+        CSVTable table = client.getTable(schemaName, tableName)
+                .orElseThrow(() -> new TableNotFoundException(new SchemaTableName(schemaName, tableName)));
+        List<CSVColumn> columns = table.getColumns().stream()
+                .filter(column -> !column.isPartitionKey())
+                .collect(toImmutableList());
+        // names are matched the way Presto sees them, in lower case
+        Set<String> columnNames = columns.stream().map(column -> column.getName().toLowerCase(ENGLISH)).collect(toImmutableSet());
+        for (String column : bloomFilterColumns) {
+            checkArgument(columnNames.contains(column), "Column %s is not a column of the files of %s.%s", column, schemaName, tableName);
+        }
+        ISession session = client.getSession();
+        try {
+            // the files are listed first, as the session cannot read while it lists a directory
+            List<FileEntry> files = new ArrayList<>();
+            client.listPartitions(session, schemaName, tableName, TupleDomain.all(), partition -> client.listFiles(session, partition, files::add));
+            for (FileEntry file : files) {
+                if (file.getSize() == 0 || client.getCompression(session, file) != CSVCompression.NONE) {
+                    continue;
+                }
+                CSVBlockIndex index = buildIndex(session, file, columns, ImmutableSet.copyOf(bloomFilterColumns));
+                // a file that changed while it was read keeps the index it had
+                if (!session.getFileEntry(file.getPath()).equals(file)) {
+                    logger.warn("File %s changed while it was indexed", file.getPath());
+                    continue;
+                }
+                session.writeFile(CSVBlockIndex.getIndexPath(file.getPath()), indexCodec.toJsonBytes(index));
+            }
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Error while indexing csv table: " + schemaName + "." + tableName, e);
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    // the index of the file, unless it is missing or was built from another version of the file
+    public Optional<CSVBlockIndex> getIndex(ISession session, FileEntry file)
+    {
+        String path = CSVBlockIndex.getIndexPath(file.getPath());
+        CSVBlockIndex index;
+        try (InputStream input = session.getInputStream(path)) {
+            index = indexCodec.fromJson(ByteStreams.toByteArray(input));
+        }
+        catch (Exception e) {
+            logger.debug(e, "No index in %s", path);
+            return Optional.empty();
+        }
+        if (index.getFileSize() != file.getSize() || index.getFileModificationTime() != file.getModificationTime()) {
+            logger.debug("Index %s is stale", path);
+            return Optional.empty();
+        }
+        return Optional.of(index);
+    }
+
+    // Whether any row of a block can match the constraint. Only the columns the index was built with, with the
+    // same types, are checked. Wall clock timestamps of a zone with offset changes are not ordered the same way
+    // as their text, so their ranges are widened by a day, and their bloom filters are not used.
+    public Predicate<Block> getBlockFilter(CSVBlockIndex index, TupleDomain<ColumnHandle> constraint, CSVFieldDecoder decoder)
+    {
+        if (constraint.isNone()) {
+            return block -> false;
+        }
+        List<CSVColumnHandle> columns = new ArrayList<>();
+        List<Domain> domains = new ArrayList<>();
+        for (Map.Entry<ColumnHandle, Domain> entry : constraint.getDomains().get().entrySet()) {
+            CSVColumnHandle column = (CSVColumnHandle) entry.getKey();
+            int ordinal = column.getOrdinalPosition();
+            if (!column.isPartitionKey()
+                    && !entry.getValue().isAll()
+                    && ordinal < index.getColumnNames().size()
+                    && index.getColumnNames().get(ordinal).toLowerCase(ENGLISH).equals(column.getColumnName())
+                    && index.getFieldTypes().get(ordinal) == FieldType.of(column.getColumnType())) {
+                columns.add(column);
+                domains.add(entry.getValue());
+            }
+        }
+        boolean widenTimestamps = !decoder.getTimestampZone().getRules().isFixedOffset();
+        // the keys of the values of equality and IN constraints, looked up in the bloom filters
+        List<List<byte[]>> bloomFilterKeys = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            List<byte[]> keys = null;
+            ValueSet values = domains.get(i).getValues();
+            FieldType fieldType = FieldType.of(columns.get(i).getColumnType());
+            if (!values.isAll() && values.isDiscreteSet() && !(fieldType == FieldType.TIMESTAMP && widenTimestamps)) {
+                keys = new ArrayList<>();
+                for (Object value : values.getDiscreteSet()) {
+                    if (fieldType == FieldType.TIMESTAMP) {
+                        // the filters hold wall clock values in UTC
+                        value = (long) value + decoder.getTimestampZone().getRules().getOffset(Instant.EPOCH).getTotalSeconds() * 1000L;
+                    }
+                    keys.add(getValueBytes(value));
+                }
+            }
+            bloomFilterKeys.add(keys);
+        }
+        return block -> {
+            for (int i = 0; i < columns.size(); i++) {
+                if (!mayMatch(block, columns.get(i), domains.get(i), decoder, widenTimestamps)) {
+                    return false;
+                }
+                if (bloomFilterKeys.get(i) != null && !mightContain(block, columns.get(i), domains.get(i), bloomFilterKeys.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static boolean mightContain(Block block, CSVColumnHandle column, Domain domain, List<byte[]> keys)
+    {
+        int ordinal = column.getOrdinalPosition();
+        byte[] serialized = block.getBloomFilters().get(ordinal);
+        if (serialized == null || (domain.isNullAllowed() && block.getNullCounts().get(ordinal) > 0)) {
+            return true;
+        }
+        BloomFilter<byte[]> bloomFilter;
+        try {
+            bloomFilter = BloomFilter.readFrom(new ByteArrayInputStream(serialized), Funnels.byteArrayFunnel());
+        }
+        catch (IOException e) {
+            logger.debug(e, "Invalid bloom filter of column %s", column.getColumnName());
+            return true;
+        }
+        return keys.stream().anyMatch(bloomFilter::mightContain);
+    }
+
+    private static boolean mayMatch(Block block, CSVColumnHandle column, Domain domain, CSVFieldDecoder decoder, boolean widenTimestamps)
+    {
+        int ordinal = column.getOrdinalPosition();
+        long nullCount = block.getNullCounts().get(ordinal);
+        if (nullCount > 0 && domain.isNullAllowed()) {
+            return true;
+        }
+        String minValue = block.getMinValues().get(ordinal);
+        String maxValue = block.getMaxValues().get(ordinal);
+        if (minValue == null || maxValue == null) {
+            // the block has only nulls, or values without a summary
+            return nullCount < block.getRows();
+        }
+        Type type = column.getColumnType();
+        FieldType fieldType = FieldType.of(type);
+        Object low = decoder.decode(fieldType, utf8Slice(minValue));
+        Object high = decoder.decode(fieldType, utf8Slice(maxValue));
+        if (low == null || high == null) {
+            return true;
+        }
+        if (fieldType == FieldType.TIMESTAMP && widenTimestamps) {
+            low = (long) low - DAYS.toMillis(1);
+            high = (long) high + DAYS.toMillis(1);
+        }
+        return domain.getValues().overlaps(ValueSet.ofRanges(Range.range(type, low, true, high, true)));
+    }
+
+    private CSVBlockIndex buildIndex(ISession session, FileEntry file, List<CSVColumn> columns, Set<String> bloomFilterColumns)
+            throws Exception
+    {
+        List<FieldType> fieldTypes = columns.stream()
+                .map(column -> FieldType.of(column.getType()))
+                .collect(toImmutableList());
+        List<Boolean> bloomFilters = columns.stream()
+                .map(column -> bloomFilterColumns.contains(column.getName().toLowerCase(ENGLISH)))
+                .collect(toImmutableList());
+        // values are ordered as they are decoded, timestamps as wall clock values in UTC
+        CSVFieldDecoder decoder = new CSVFieldDecoder(ZoneOffset.UTC);
+        ImmutableList.Builder<Block> blocks = ImmutableList.builder();
+        try (CSVTokenizer tokenizer = new CSVTokenizer(session.getInputStream(file.getPath()), client.getDelimiter())) {
+            tokenizer.setMaxFields(fieldTypes.size());
+            // skip the header
+            tokenizer.advance();
+            BlockSummary summary = newBlockSummary(decoder, fieldTypes, bloomFilters, tokenizer.getConsumedBytes());
+            while (tokenizer.advance()) {
+                summary.add(tokenizer);
+                if (summary.getRows() == rowsPerBlock) {
+                    blocks.add(summary.build(tokenizer.getConsumedBytes()));
+                    summary = newBlockSummary(decoder, fieldTypes, bloomFilters, tokenizer.getConsumedBytes());
+                }
+            }
+            if (summary.getRows() > 0) {
+                blocks.add(summary.build(tokenizer.getConsumedBytes()));
+            }
+        }
+        return new CSVBlockIndex(
+                file.getSize(),
+                file.getModificationTime(),
+                columns.stream().map(CSVColumn::getName).collect(toImmutableList()),
+                fieldTypes,
+                blocks.build());
+    }
+
+    private BlockSummary newBlockSummary(CSVFieldDecoder decoder, List<FieldType> fieldTypes, List<Boolean> bloomFilters, long offset)
+    {
+        List<BloomFilter<byte[]>> filters = bloomFilters.stream()
+                .map(enabled -> enabled ? BloomFilter.create(Funnels.byteArrayFunnel(), rowsPerBlock, bloomFilterFpp) : null)
+                .collect(toList());
+        return new BlockSummary(decoder, fieldTypes, filters, offset);
+    }
+
+    private static class BlockSummary
+    {
+        private final CSVFieldDecoder decoder;
+        private final List<FieldType> fieldTypes;
+        private final long offset;
+        private final Object[] minValues;
+        private final Object[] maxValues;
+        private final String[] minTexts;
+        private final String[] maxTexts;
+        private final long[] nullCounts;
+        // columns with a value that cannot be summarized
+        private final boolean[] unknown;
+        // null for the columns without a bloom filter
+        private final List<BloomFilter<byte[]>> bloomFilters;
+        private long rows;
+
+        public BlockSummary(CSVFieldDecoder decoder, List<FieldType> fieldTypes, List<BloomFilter<byte[]>> bloomFilters, long offset)
+        {
+            this.decoder = decoder;
+            this.fieldTypes = fieldTypes;
+            this.bloomFilters = bloomFilters;
+            this.offset = offset;
+            this.minValues = new Object[fieldTypes.size()];
+            this.maxValues = new Object[fieldTypes.size()];
+            this.minTexts = new String[fieldTypes.size()];
+            this.maxTexts = new String[fieldTypes.size()];
+            this.nullCounts = new long[fieldTypes.size()];
+            this.unknown = new boolean[fieldTypes.size()];
+        }
+
+        public long getRows()
+        {
+            return rows;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public void add(CSVTokenizer tokenizer)
+        {
+            rows++;
+            for (int i = 0; i < fieldTypes.size(); i++) {
+                Object value = null;
+                if (i < tokenizer.getFieldCount()) {
+                    value = decoder.decode(fieldTypes.get(i), tokenizer.getSlice(i));
+                }
+                if (value == null) {
+                    nullCounts[i]++;
+                    continue;
+                }
+                if (bloomFilters.get(i) != null) {
+                    bloomFilters.get(i).put(getValueBytes(value));
+                }
+                if (unknown[i]) {
+                    continue;
+                }
+                boolean smaller = minValues[i] == null || ((Comparable) value).compareTo(minValues[i]) < 0;
+                boolean larger = maxValues[i] == null || ((Comparable) value).compareTo(maxValues[i]) > 0;
+                if (!smaller && !larger) {
+                    continue;
+                }
+                String text = tokenizer.getSlice(i).toStringUtf8();
+                if (!isSummarizable(fieldTypes.get(i), value, text)) {
+                    unknown[i] = true;
+                    continue;
+                }
+                // varchar values point into the buffer of the tokenizer
+                Object copy = value instanceof Slice ? utf8Slice(text) : value;
+                if (smaller) {
+                    minValues[i] = copy;
+                    minTexts[i] = text;
+                }
+                if (larger) {
+                    maxValues[i] = copy;
+                    maxTexts[i] = text;
+                }
+            }
+        }
+
+        public Block build(long end)
+                throws IOException
+        {
+            List<String> min = new ArrayList<>();
+            List<String> max = new ArrayList<>();
+            List<byte[]> serializedBloomFilters = new ArrayList<>();
+            for (int i = 0; i < fieldTypes.size(); i++) {
+                min.add(unknown[i] ? null : minTexts[i]);
+                max.add(unknown[i] ? null : maxTexts[i]);
+                byte[] serialized = null;
+                if (bloomFilters.get(i) != null) {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    bloomFilters.get(i).writeTo(output);
+                    serialized = output.toByteArray();
+                }
+                serializedBloomFilters.add(serialized);
+            }
+            return new Block(offset, end - offset, rows, min, max, Arrays.stream(nullCounts).boxed().collect(toImmutableList()), serializedBloomFilters);
+        }
+
+        // NaN is not ordered, and varchar values are kept only when they are short and survive the round trip through text
+        private static boolean isSummarizable(FieldType fieldType, Object value, String text)
+        {
+            if (fieldType == FieldType.DOUBLE) {
+                return !Double.isNaN((double) value);
+            }
+            if (fieldType == FieldType.VARCHAR) {
+                Slice slice = (Slice) value;
+                return slice.length() <= MAX_VALUE_LENGTH && utf8Slice(text).equals(slice);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.spi.procedure.Procedure;
+import com.facebook.presto.spi.procedure.Procedure.Argument;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+import static com.facebook.presto.common.block.MethodHandleUtil.methodHandle;
+import static com.facebook.presto.common.type.StandardTypes.VARCHAR;
+import static java.util.Locale.ENGLISH;
+import static java.util.Objects.requireNonNull;
+
+// CALL csv.system.build_index(schema_name, table_name[, bloom_filter_columns])
+public class CSVBuildIndexProcedure
+        implements Provider<Procedure>
+{
+    private static final MethodHandle BUILD_INDEX = methodHandle(
+            CSVBuildIndexProcedure.class,
+            "buildIndex",
+            String.class,
+            String.class,
+            String.class);
+
+    private final CSVBlockIndexManager indexManager;
+
+    @Inject
+    public CSVBuildIndexProcedure(CSVBlockIndexManager indexManager)
+    {
+        this.indexManager = requireNonNull(indexManager, "indexManager is null");
+    }
+
+    @Override
+    public Procedure get()
+    {
+        return new Procedure(
+                "system",
+                "build_index",
+                ImmutableList.of(
+                        new Argument("schema_name", VARCHAR),
+                        new Argument("table_name", VARCHAR),
+                        new Argument("bloom_filter_columns", VARCHAR, false, null)),
+                BUILD_INDEX.bindTo(this));
+    }
+
+    // bloom filter columns are separated by commas
+    public void buildIndex(String schemaName, String tableName, String bloomFilterColumns)
+    {
+        List<String> columns = ImmutableList.of();
+        if (bloomFilterColumns != null) {
+            columns = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(bloomFilterColumns.toLowerCase(ENGLISH));
+        }
+        indexManager.buildIndexes(requireNonNull(schemaName, "schema_name is null"), requireNonNull(tableName, "table_name is null"), columns);
+    }
+}
@@ -15,32 +15,78 @@ package org.ame.presto.csv;
 
 import com.facebook.airlift.json.JsonCodec;
 import com.facebook.airlift.log.Logger;
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.common.type.Type;
 import com.facebook.presto.common.type.VarcharType;
+import com.facebook.presto.spi.ColumnHandle;
+import com.google.common.base.Splitter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.airlift.slice.Slice;
+import org.ame.presto.csv.CSVFieldDecoder.FieldType;
+import org.ame.presto.csv.session.FileEntry;
 import org.ame.presto.csv.session.ISession;
 import org.ame.presto.csv.session.SessionProvider;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
-import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.cache.CacheLoader.asyncReloading;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static io.airlift.slice.Slices.utf8Slice;
+import static java.util.Locale.ENGLISH;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class CSVClient
 {
-    private static final String IGNORE_QUOTES = "(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+    // the directory name of partitions with a null value
+    private static final String DEFAULT_PARTITION_NAME = "__HIVE_DEFAULT_PARTITION__";
     private final Logger logger = Logger.get(CSVClient.class);
     private final CSVConfig config;
-    private final String splitter;
+    private final char delimiter;
     private final String suffix;
+    private final boolean directoryTablesEnabled;
+    private final SessionProvider sessionProvider;
+    private final ExecutorService refreshExecutor = newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("csv-metadata-refresh-%s")
+            .setDaemon(true)
+            .build());
+    private final ExecutorService decompressionExecutor;
+    private final LoadingCache<String, List<String>> schemaNamesCache;
+    private final LoadingCache<String, List<String>> tableNamesCache;
+    private final LoadingCache<FileEntry, Optional<CSVTable>> tableCache;
 
     @Inject
     public CSVClient(CSVConfig config, JsonCodec<Map<String, List<CSVTable>>> catalogCodec)
@@ -48,88 +94,496 @@ public class CSVClient
         requireNonNull(config, "config is null");
         requireNonNull(catalogCodec, "catalogCodec is null");
         this.config = config;
-        this.splitter = config.getSplitter() == null ? "," + IGNORE_QUOTES : config.getSplitter() + IGNORE_QUOTES;
+        this.delimiter = toDelimiter(config.getSplitter());
         this.suffix = config.getSuffix() == null ? "csv" : config.getSuffix();
+        this.directoryTablesEnabled = config.isDirectoryTablesEnabled();
+        this.sessionProvider = createSessionProvider();
+        // splits that find every thread busy decompress in their own thread, see CSVRecordReader
+        this.decompressionExecutor = new ThreadPoolExecutor(
+                0,
+                config.getDecompressionThreads(),
+                60,
+                SECONDS,
+                new SynchronousQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("csv-decompression-%s")
+                        .setDaemon(true)
+                        .build());
+        this.schemaNamesCache = newCache(CacheLoader.from(ignored -> loadSchemaNames()));
+        this.tableNamesCache = newCache(CacheLoader.from(this::loadTableNames));
+        this.tableCache = newCache(new CacheLoader<FileEntry, Optional<CSVTable>>()
+        {
+            @Override
+            public Optional<CSVTable> load(FileEntry table)
+                    throws Exception
+            {
+                return loadTable(table);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        refreshExecutor.shutdownNow();
+        decompressionExecutor.shutdownNow();
+        sessionProvider.close();
     }
 
     public List<String> getSchemaNames()
     {
+        return get(schemaNamesCache, "");
+    }
+
+    public List<String> getTableNames(String schemaName)
+    {
+        requireNonNull(schemaName, "schemaName is null");
+        return get(tableNamesCache, schemaName);
+    }
+
+    public Optional<CSVTable> getTable(String schemaName, String tableName)
+    {
+        // the header is cached for a version of the file, so a changed file is read again
+        Optional<FileEntry> table = getTableEntry(schemaName, tableName);
+        if (!table.isPresent()) {
+            return Optional.empty();
+        }
         try {
-            ISession session = getSession();
-            List<String> schemas = session.getSchemas();
+            return get(tableCache, table.get());
+        }
+        catch (RuntimeException e) {
+            logger.warn(e, "Error while reading csv file %s", tableName);
+            return Optional.empty();
+        }
+    }
+
+    // the file or directory of a table, whose size and modification time tell its version
+    public Optional<FileEntry> getTableEntry(String schemaName, String tableName)
+    {
+        ISession session = getSession();
+        try {
+            return Optional.of(session.getFileEntry(schemaName + "/" + tableName));
+        }
+        catch (Exception e) {
+            logger.warn(e, "Error while reading csv file %s", tableName);
+            return Optional.empty();
+        }
+        finally {
             session.close();
-            return ImmutableList.copyOf(schemas);
+        }
+    }
+
+    public void invalidateCache(Optional<String> schemaName, Optional<String> tableName)
+    {
+        if (!schemaName.isPresent()) {
+            schemaNamesCache.invalidateAll();
+            tableNamesCache.invalidateAll();
+            tableCache.invalidateAll();
+            return;
+        }
+        String path = schemaName.get() + "/" + tableName.orElse("");
+        if (!tableName.isPresent()) {
+            tableNamesCache.invalidate(schemaName.get());
+        }
+        tableCache.asMap().keySet().removeIf(table -> tableName.isPresent() ? table.getPath().equals(path) : table.getPath().startsWith(path));
+    }
+
+    private List<String> loadSchemaNames()
+    {
+        ISession session = getSession();
+        try {
+            return ImmutableList.copyOf(session.getSchemas());
         }
         catch (Exception e) {
             throw new RuntimeException(e);
         }
+        finally {
+            session.close();
+        }
     }
 
-    public List<String> getTableNames(String schemaName)
+    private List<String> loadTableNames(String schemaName)
     {
-        requireNonNull(schemaName, "schemaName is null");
+        ISession session = getSession();
         try {
-            ISession session = getSession();
-            List<String> tables = session.getTables(schemaName, suffix);
-            session.close();
-            return ImmutableList.copyOf(tables);
+            ImmutableList.Builder<String> tables = ImmutableList.builder();
+            for (FileEntry entry : session.listFiles(schemaName)) {
+                if (entry.isDirectory() ? directoryTablesEnabled && !isHidden(entry) : isDataFileName(entry.getName())) {
+                    tables.add(entry.getName());
+                }
+            }
+            return tables.build();
         }
         catch (Exception e) {
             throw new RuntimeException(e);
         }
+        finally {
+            session.close();
+        }
     }
 
-    public Optional<CSVTable> getTable(String schemaName, String tableName)
+    private Optional<CSVTable> loadTable(FileEntry table)
+            throws Exception
     {
         ImmutableList.Builder<CSVColumn> columns = ImmutableList.builder();
         // Assume the first row is always the header
         String[] header;
+        List<Type> types;
+        List<String> partitionKeys;
         Set<String> columnNames = new HashSet<>();
+        ISession session = getSession();
         try {
-            ISession session = getSession();
-            InputStream inputStream = session.getInputStream(schemaName, tableName);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            String headerLine = reader.readLine();
-            if (headerLine == null) {
+            // the header of a directory table comes from its first file
+            Optional<FileEntry> file = table.isDirectory() ? findFirstFile(session, table.getPath()) : Optional.of(table);
+            if (!file.isPresent()) {
                 return Optional.empty();
             }
-            header = headerLine.split(splitter, -1);
-            reader.close();
-            inputStream.close();
-            session.close();
+            partitionKeys = getPartitionKeys(table.getPath(), file.get().getPath());
+            try (CSVTokenizer tokenizer = new CSVTokenizer(CSVCompression.decompressFile(session.getInputStream(file.get().getPath())), delimiter)) {
+                if (!tokenizer.advance()) {
+                    return Optional.empty();
+                }
+                header = tokenizer.getStrings();
+                types = inferTypes(tokenizer, header.length);
+            }
         }
-        catch (Exception e) {
-            logger.warn(e, "Error while reading csv file %s", tableName);
-            return Optional.empty();
+        finally {
+            session.close();
         }
+        // partition keys take precedence over the columns of the file
+        columnNames.addAll(partitionKeys);
         for (int i = 0; i < header.length; i++) {
             String columnName = header[i].trim();
             // when empty or repeated column header, adding a placeholder column name
-            if (columnName.isEmpty() || columnNames.contains(columnName)) {
+            // names that only differ in case are repeated, as columns are resolved in lower case
+            if (columnName.isEmpty() || columnNames.contains(columnName.toLowerCase(ENGLISH))) {
                 columnName = "column_" + i;
             }
-            columnNames.add(columnName);
-            columns.add(new CSVColumn(columnName, VarcharType.VARCHAR));
+            columnNames.add(columnName.toLowerCase(ENGLISH));
+            columns.add(new CSVColumn(columnName, types.get(i)));
+        }
+        for (String partitionKey : partitionKeys) {
+            columns.add(new CSVColumn(partitionKey, VarcharType.VARCHAR, true));
+        }
+        return Optional.of(new CSVTable(table.getName(), columns.build()));
+    }
+
+    // lists the partitions of a table, skipping the partition directories that cannot match the constraint
+    public void listPartitions(ISession session, String schemaName, String tableName, TupleDomain<ColumnHandle> constraint, Consumer<CSVPartition> consumer)
+    {
+        if (constraint.isNone()) {
+            return;
+        }
+        Map<String, Domain> domains = new HashMap<>();
+        constraint.getDomains().get().forEach((column, domain) -> {
+            CSVColumnHandle columnHandle = (CSVColumnHandle) column;
+            if (columnHandle.isPartitionKey()) {
+                domains.put(columnHandle.getColumnName(), domain);
+            }
+        });
+        try {
+            FileEntry table = session.getFileEntry(schemaName + "/" + tableName);
+            if (!table.isDirectory()) {
+                consumer.accept(new CSVPartition(table.getPath(), false, ImmutableMap.of()));
+            }
+            else if (directoryTablesEnabled) {
+                listPartitionDirectories(session, table.getPath(), ImmutableMap.of(), domains, consumer);
+            }
+        }
+        catch (Exception e) {
+            throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    // passes the data files of a partition to the consumer as they are listed
+    public void listFiles(ISession session, CSVPartition partition, Consumer<FileEntry> consumer)
+    {
+        try {
+            if (!partition.isDirectory()) {
+                consumer.accept(session.getFileEntry(partition.getPath()));
+                return;
+            }
+            session.listFiles(partition.getPath(), entry -> {
+                if (isDataFile(entry)) {
+                    consumer.accept(entry);
+                }
+            });
+        }
+        catch (Exception e) {
+            throwIfUnchecked(e);
+            throw new RuntimeException(e);
         }
-        return Optional.of(new CSVTable(tableName, columns.build()));
+    }
+
+    // the compression of a file as told by its first bytes
+    public CSVCompression getCompression(ISession session, FileEntry file)
+    {
+        byte[] header = new byte[CSVCompression.HEADER_SIZE];
+        try (InputStream input = session.getInputStream(file.getPath(), 0, header.length)) {
+            return CSVCompression.fromHeader(header, ByteStreams.read(input, header, 0, header.length));
+        }
+        catch (Exception e) {
+            throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void listPartitionDirectories(ISession session, String path, Map<String, String> values, Map<String, Domain> domains, Consumer<CSVPartition> consumer)
+            throws Exception
+    {
+        // only the partition directories of one level are kept in memory
+        List<FileEntry> directories = new ArrayList<>();
+        session.listFiles(path, entry -> {
+            if (isPartitionDirectory(entry)) {
+                directories.add(entry);
+            }
+        });
+        if (directories.isEmpty()) {
+            consumer.accept(new CSVPartition(path, true, values));
+            return;
+        }
+        directories.sort(Comparator.comparing(FileEntry::getPath));
+        for (FileEntry directory : directories) {
+            String name = directory.getName();
+            int separator = name.indexOf('=');
+            String key = unescapePathName(name.substring(0, separator)).toLowerCase(ENGLISH);
+            String value = unescapePathName(name.substring(separator + 1));
+            boolean isNull = value.equals(DEFAULT_PARTITION_NAME);
+            Domain domain = domains.get(key);
+            if (domain != null && !domain.includesNullableValue(isNull ? null : utf8Slice(value))) {
+                continue;
+            }
+            Map<String, String> partitionValues = new LinkedHashMap<>(values);
+            if (isNull) {
+                partitionValues.remove(key);
+            }
+            else {
+                partitionValues.put(key, value);
+            }
+            listPartitionDirectories(session, directory.getPath(), partitionValues, domains, consumer);
+        }
+    }
+
+    // the first non-empty file of a directory table in depth-first order
+    private Optional<FileEntry> findFirstFile(ISession session, String path)
+            throws Exception
+    {
+        if (!directoryTablesEnabled) {
+            return Optional.empty();
+        }
+        List<FileEntry> entries = session.listFiles(path).stream()
+                .sorted(Comparator.comparing(FileEntry::getPath))
+                .collect(toImmutableList());
+        List<FileEntry> directories = entries.stream()
+                .filter(CSVClient::isPartitionDirectory)
+                .collect(toImmutableList());
+        if (directories.isEmpty()) {
+            return entries.stream()
+                    .filter(entry -> isDataFile(entry) && entry.getSize() > 0)
+                    .findFirst();
+        }
+        for (FileEntry directory : directories) {
+            Optional<FileEntry> file = findFirstFile(session, directory.getPath());
+            if (file.isPresent()) {
+                return file;
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static List<String> getPartitionKeys(String tablePath, String filePath)
+    {
+        if (!filePath.startsWith(tablePath + "/")) {
+            return ImmutableList.of();
+        }
+        List<String> segments = Splitter.on('/').splitToList(filePath.substring(tablePath.length() + 1));
+        ImmutableList.Builder<String> partitionKeys = ImmutableList.builder();
+        for (String segment : segments.subList(0, segments.size() - 1)) {
+            partitionKeys.add(unescapePathName(segment.substring(0, segment.indexOf('='))).toLowerCase(ENGLISH));
+        }
+        return partitionKeys.build();
+    }
+
+    private boolean isDataFile(FileEntry entry)
+    {
+        return !entry.isDirectory() && !isHidden(entry) && isDataFileName(entry.getName());
+    }
+
+    // compressed files keep the suffix in front of the extension of the compression, as in data.csv.gz
+    private boolean isDataFileName(String name)
+    {
+        return CSVCompression.stripExtension(name).endsWith(suffix);
+    }
+
+    private static boolean isPartitionDirectory(FileEntry entry)
+    {
+        return entry.isDirectory() && !isHidden(entry) && entry.getName().indexOf('=') > 0;
+    }
+
+    // marker and temporary files such as _SUCCESS or .part-0.crc are not part of a table
+    private static boolean isHidden(FileEntry entry)
+    {
+        return entry.getName().startsWith(".") || entry.getName().startsWith("_");
+    }
+
+    // partition directories written by hive escape special characters as %XX
+    private static String unescapePathName(String name)
+    {
+        StringBuilder unescaped = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '%' && i + 2 < name.length()) {
+                try {
+                    unescaped.append((char) Integer.parseInt(name.substring(i + 1, i + 3), 16));
+                    i += 2;
+                    continue;
+                }
+                catch (NumberFormatException e) {
+                    // not an escape sequence
+                }
+            }
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+
+    private List<Type> inferTypes(CSVTokenizer tokenizer, int columnCount)
+            throws IOException
+    {
+        if (!config.isTypeInferenceEnabled()) {
+            return Collections.nCopies(columnCount, VarcharType.VARCHAR);
+        }
+        // the candidate types of every column, narrowed by each sampled value
+        List<EnumSet<FieldType>> candidates = new ArrayList<>(columnCount);
+        boolean[] sampled = new boolean[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            candidates.add(EnumSet.allOf(FieldType.class));
+        }
+        CSVFieldDecoder decoder = new CSVFieldDecoder(ZoneOffset.UTC);
+        long sampleBytes = tokenizer.getConsumedBytes() + config.getTypeInferenceSampleSize().toBytes();
+        for (int row = 0; row < config.getTypeInferenceSampleRows() && tokenizer.getConsumedBytes() < sampleBytes && tokenizer.advance(); row++) {
+            for (int i = 0; i < Math.min(columnCount, tokenizer.getFieldCount()); i++) {
+                Slice value = tokenizer.getSlice(i);
+                if (value.length() == 0) {
+                    continue;
+                }
+                sampled[i] = true;
+                candidates.get(i).removeIf(fieldType -> !canDecode(decoder, fieldType, value));
+            }
+        }
+        ImmutableList.Builder<Type> types = ImmutableList.builder();
+        for (int i = 0; i < columnCount; i++) {
+            // columns without any sampled value stay varchar
+            FieldType fieldType = sampled[i] ? candidates.get(i).iterator().next() : FieldType.VARCHAR;
+            types.add(fieldType.getType());
+        }
+        return types.build();
+    }
+
+    private static boolean canDecode(CSVFieldDecoder decoder, FieldType fieldType, Slice value)
+    {
+        try {
+            switch (fieldType) {
+                case BOOLEAN:
+                    CSVFieldDecoder.parseBoolean(value);
+                    break;
+                case DOUBLE:
+                    CSVFieldDecoder.parseDouble(value);
+                    break;
+                case BIGINT:
+                case DATE:
+                case TIMESTAMP:
+                    decoder.decodeLong(fieldType, value);
+                    break;
+                default:
+                    break;
+            }
+            return true;
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private <K, V> LoadingCache<K, V> newCache(CacheLoader<K, V> loader)
+    {
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.getMetadataCacheTtl().toMillis(), MILLISECONDS)
+                .maximumSize(config.getMetadataCacheMaximumSize());
+        // entries are reloaded in the background when they are read after the refresh interval
+        if (config.getMetadataRefreshInterval().toMillis() > 0 && config.getMetadataCacheTtl().toMillis() > 0) {
+            cacheBuilder.refreshAfterWrite(config.getMetadataRefreshInterval().toMillis(), MILLISECONDS);
+        }
+        return cacheBuilder.build(asyncReloading(loader, refreshExecutor));
+    }
+
+    private static <K, V> V get(LoadingCache<K, V> cache, K key)
+    {
+        try {
+            return cache.getUnchecked(key);
+        }
+        catch (UncheckedExecutionException e) {
+            throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public ExecutorService getDecompressionExecutor()
+    {
+        return decompressionExecutor;
     }
 
     public ISession getSession()
+    {
+        return sessionProvider.getSession();
+    }
+
+    public ISession getSplitSession()
+    {
+        return sessionProvider.getSplitSession();
+    }
+
+    private SessionProvider createSessionProvider()
     {
         Map<String, String> sessionInfo = new HashMap<>();
         sessionInfo.put("base", config.getBase());
         sessionInfo.put("protocol", config.getProtocol());
         sessionInfo.put("host", config.getHost());
-        sessionInfo.put("port", config.getPort().toString());
+        sessionInfo.put("port", String.valueOf(config.getPort()));
         sessionInfo.put("username", config.getUsername());
         sessionInfo.put("password", config.getPassword());
-        sessionInfo.put("splitter", splitter);
+        sessionInfo.put("splitter", String.valueOf(delimiter));
         sessionInfo.put("suffix", suffix);
-        return new SessionProvider(sessionInfo).getSession();
+        sessionInfo.put("maxConnections", String.valueOf(config.getSftpMaxConnections()));
+        sessionInfo.put("idleTimeout", String.valueOf(config.getSftpIdleTimeout().toMillis()));
+        sessionInfo.put("keepAliveInterval", String.valueOf(config.getSftpKeepAliveInterval().toMillis()));
+        sessionInfo.put("maxConnectionWait", String.valueOf(config.getSftpMaxConnectionWait().toMillis()));
+        sessionInfo.put("readParallelism", String.valueOf(config.getSftpReadParallelism()));
+        sessionInfo.put("readChunkSize", String.valueOf(config.getSftpReadChunkSize().toBytes()));
+        sessionInfo.put("mmapEnabled", String.valueOf(config.isLocalMmapEnabled()));
+        if (config.getSftpCacheDirectory() != null) {
+            sessionInfo.put("cacheDirectory", config.getSftpCacheDirectory());
+            sessionInfo.put("cacheMaxSize", String.valueOf(config.getSftpCacheMaxSize().toBytes()));
+        }
+        return new SessionProvider(sessionInfo);
     }
 
-    public String getSplitter()
+    public char getDelimiter()
     {
-        return splitter;
+        return delimiter;
+    }
+
+    private static char toDelimiter(String splitter)
+    {
+        if (isNullOrEmpty(splitter)) {
+            return ',';
+        }
+        // accept regex-escaped characters such as "\\|" from configurations written for the regex splitter
+        if (splitter.length() == 2 && splitter.charAt(0) == '\\') {
+            return splitter.charAt(1) == 't' ? '\t' : splitter.charAt(1);
+        }
+        checkArgument(splitter.length() == 1, "csv.splitter must be a single character: %s", splitter);
+        return splitter.charAt(0);
     }
 }
@@ -28,15 +28,23 @@ public class CSVColumn
 {
     private final String name;
     private final Type type;
+    private final boolean partitionKey;
+
+    public CSVColumn(String name, Type type)
+    {
+        this(name, type, false);
+    }
 
     @JsonCreator
     public CSVColumn(
             @JsonProperty("name") String name,
-            @JsonProperty("type") Type type)
+            @JsonProperty("type") Type type,
+            @JsonProperty("partitionKey") boolean partitionKey)
     {
         checkArgument(!isNullOrEmpty(name), "name is null or is empty");
         this.name = name;
         this.type = requireNonNull(type, "type is null");
+        this.partitionKey = partitionKey;
     }
 
     @JsonProperty
@@ -51,10 +59,16 @@ public class CSVColumn
         return type;
     }
 
+    @JsonProperty
+    public boolean isPartitionKey()
+    {
+        return partitionKey;
+    }
+
     @Override
     public int hashCode()
     {
-        return Objects.hash(name, type);
+        return Objects.hash(name, type, partitionKey);
     }
 
     @Override
@@ -69,7 +83,8 @@ public class CSVColumn
 
         CSVColumn that = (CSVColumn) o;
         return Objects.equals(this.name, that.name) &&
-                Objects.equals(this.type, that.type);
+                Objects.equals(this.type, that.type) &&
+                this.partitionKey == that.partitionKey;
     }
 
     @Override
@@ -78,6 +93,7 @@ public class CSVColumn
         return toStringHelper(this)
                 .add("name", name)
                 .add("type", type)
+                .add("partitionKey", partitionKey)
                 .toString();
     }
 }
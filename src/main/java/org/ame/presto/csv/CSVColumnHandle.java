@@ -29,16 +29,19 @@ public class CSVColumnHandle
     private final String columnName;
     private final Type columnType;
     private final int ordinalPosition;
+    private final boolean partitionKey;
 
     @JsonCreator
     public CSVColumnHandle(
             @JsonProperty("columnName") String columnName,
             @JsonProperty("columnType") Type columnType,
-            @JsonProperty("ordinalPosition") int ordinalPosition)
+            @JsonProperty("ordinalPosition") int ordinalPosition,
+            @JsonProperty("partitionKey") boolean partitionKey)
     {
         this.columnName = columnName;
         this.columnType = columnType;
         this.ordinalPosition = ordinalPosition;
+        this.partitionKey = partitionKey;
     }
 
     @JsonProperty
@@ -59,6 +62,13 @@ public class CSVColumnHandle
         return ordinalPosition;
     }
 
+    // partition keys are read from the directory names instead of the file
+    @JsonProperty
+    public boolean isPartitionKey()
+    {
+        return partitionKey;
+    }
+
     public ColumnMetadata getColumnMetadata()
     {
         return new ColumnMetadata(columnName, columnType);
@@ -91,6 +101,7 @@ public class CSVColumnHandle
                 .add("columnName", columnName)
                 .add("columnType", columnType)
                 .add("ordinalPosition", ordinalPosition)
+                .add("partitionKey", partitionKey)
                 .toString();
     }
 }
@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static java.util.Locale.ENGLISH;
+
+public enum CSVCompression
+{
+    NONE(null, new int[0]),
+    GZIP(".gz", new int[] {0x1f, 0x8b}),
+    // gzip made of independent blocks that carry their size, as written by bgzip, can be read from any block
+    BGZF(null, new int[] {0x1f, 0x8b, 0x08, 0x04}),
+    ZSTD(".zst", new int[] {0x28, 0xb5, 0x2f, 0xfd}),
+    BZIP2(".bz2", new int[] {'B', 'Z', 'h'}),
+    LZ4(".lz4", new int[] {0x04, 0x22, 0x4d, 0x18});
+
+    // enough to recognize every format, including the extra field of a BGZF block
+    public static final int HEADER_SIZE = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+    private final int[] magic;
+
+    CSVCompression(String extension, int[] magic)
+    {
+        this.extension = extension;
+        this.magic = magic;
+    }
+
+    public boolean isSplittable()
+    {
+        return this == NONE || this == BGZF;
+    }
+
+    public InputStream decompress(InputStream input)
+            throws IOException
+    {
+        switch (this) {
+            case GZIP:
+            case BGZF:
+                // BGZF blocks are concatenated gzip members
+                return new GZIPInputStream(input, BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdCompressorInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+            case BZIP2:
+                return new BZip2CompressorInputStream(new BufferedInputStream(input, BUFFER_SIZE), true);
+            case LZ4:
+                return new FramedLZ4CompressorInputStream(new BufferedInputStream(input, BUFFER_SIZE), true);
+            default:
+                return input;
+        }
+    }
+
+    public static CSVCompression fromFileName(String name)
+    {
+        String lowerCaseName = name.toLowerCase(ENGLISH);
+        for (CSVCompression compression : values()) {
+            if (compression.extension != null && lowerCaseName.endsWith(compression.extension)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    // the name of a file without the extension of its compression
+    public static String stripExtension(String name)
+    {
+        CSVCompression compression = fromFileName(name);
+        if (compression == NONE) {
+            return name;
+        }
+        return name.substring(0, name.length() - compression.extension.length());
+    }
+
+    public static CSVCompression fromHeader(byte[] header, int length)
+    {
+        if (matches(BGZF.magic, header, length) && length >= 14 && header[12] == 'B' && header[13] == 'C') {
+            return BGZF;
+        }
+        for (CSVCompression compression : values()) {
+            if (compression != NONE && compression != BGZF && matches(compression.magic, header, length)) {
+                // the bzip2 magic is plain text, so the block size and the magic of the first block are checked as well
+                if (compression == BZIP2 && (length < 5 || header[3] < '1' || header[3] > '9' || (header[4] != 0x31 && header[4] != 0x17))) {
+                    continue;
+                }
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    // decompresses a whole file, recognizing the compression from its first bytes
+    public static InputStream decompressFile(InputStream input)
+            throws IOException
+    {
+        BufferedInputStream buffered = new BufferedInputStream(input, BUFFER_SIZE);
+        return fromHeader(buffered).decompress(buffered);
+    }
+
+    // looks at the first bytes of the stream without consuming them
+    public static CSVCompression fromHeader(BufferedInputStream input)
+            throws IOException
+    {
+        input.mark(HEADER_SIZE);
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        while (length < HEADER_SIZE) {
+            int read = input.read(header, length, HEADER_SIZE - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        input.reset();
+        return fromHeader(header, length);
+    }
+
+    private static boolean matches(int[] magic, byte[] header, int length)
+    {
+        if (magic.length == 0 || length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
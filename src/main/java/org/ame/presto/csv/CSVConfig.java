@@ -14,6 +14,20 @@
 package org.ame.presto.csv;
 
 import com.facebook.airlift.configuration.Config;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.airlift.units.MaxDataSize;
+import io.airlift.units.MinDataSize;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import static io.airlift.units.DataSize.Unit.GIGABYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class CSVConfig
 {
@@ -25,6 +39,38 @@ public class CSVConfig
     private Integer port;
     private String splitter;
     private String suffix;
+    private boolean pageSourceEnabled = true;
+    private boolean typeInferenceEnabled;
+    private int typeInferenceSampleRows = 1000;
+    private DataSize typeInferenceSampleSize = new DataSize(1, MEGABYTE);
+    private DataSize maxSplitSize = new DataSize(64, MEGABYTE);
+    private boolean directoryTablesEnabled;
+    private int maxOutstandingSplits = 1000;
+    private int splitAffinityReplicas = 2;
+    private Duration metadataCacheTtl = new Duration(0, SECONDS);
+    private Duration metadataRefreshInterval = new Duration(0, SECONDS);
+    private long metadataCacheMaximumSize = 10000;
+    private int sftpMaxConnections = 10;
+    private Duration sftpIdleTimeout = new Duration(5, MINUTES);
+    private Duration sftpKeepAliveInterval = new Duration(30, SECONDS);
+    private Duration sftpMaxConnectionWait = new Duration(1, MINUTES);
+    private int sftpReadParallelism = 4;
+    private DataSize sftpReadChunkSize = new DataSize(1, MEGABYTE);
+    private boolean localMmapEnabled = true;
+    private String sftpCacheDirectory;
+    private DataSize sftpCacheMaxSize = new DataSize(10, GIGABYTE);
+    private boolean pageCacheEnabled;
+    private DataSize pageCacheMaxSize = new DataSize(256, MEGABYTE);
+    private long rowCountCacheMaximumSize = 100000;
+    private boolean blockIndexEnabled;
+    private int blockIndexRows = 10000;
+    private double blockIndexBloomFilterFpp = 0.01;
+    private boolean statisticsEnabled;
+    private DataSize statisticsSampleSize = new DataSize(1, MEGABYTE);
+    private boolean statisticsExactEnabled;
+    private long statisticsCacheMaximumSize = 10000;
+    private int decompressionThreads = Runtime.getRuntime().availableProcessors();
+    private boolean rangeSplitsEnabled = true;
 
     public String getProtocol()
     {
@@ -66,6 +112,194 @@ public class CSVConfig
         return suffix;
     }
 
+    public boolean isPageSourceEnabled()
+    {
+        return pageSourceEnabled;
+    }
+
+    public boolean isTypeInferenceEnabled()
+    {
+        return typeInferenceEnabled;
+    }
+
+    @Min(1)
+    public int getTypeInferenceSampleRows()
+    {
+        return typeInferenceSampleRows;
+    }
+
+    @NotNull
+    public DataSize getTypeInferenceSampleSize()
+    {
+        return typeInferenceSampleSize;
+    }
+
+    @NotNull
+    @MinDataSize("1MB")
+    public DataSize getMaxSplitSize()
+    {
+        return maxSplitSize;
+    }
+
+    public boolean isDirectoryTablesEnabled()
+    {
+        return directoryTablesEnabled;
+    }
+
+    @Min(1)
+    public int getMaxOutstandingSplits()
+    {
+        return maxOutstandingSplits;
+    }
+
+    @Min(0)
+    public int getSplitAffinityReplicas()
+    {
+        return splitAffinityReplicas;
+    }
+
+    @NotNull
+    public Duration getMetadataCacheTtl()
+    {
+        return metadataCacheTtl;
+    }
+
+    @NotNull
+    public Duration getMetadataRefreshInterval()
+    {
+        return metadataRefreshInterval;
+    }
+
+    @Min(1)
+    public long getMetadataCacheMaximumSize()
+    {
+        return metadataCacheMaximumSize;
+    }
+
+    @Min(1)
+    public int getSftpMaxConnections()
+    {
+        return sftpMaxConnections;
+    }
+
+    @NotNull
+    public Duration getSftpIdleTimeout()
+    {
+        return sftpIdleTimeout;
+    }
+
+    @NotNull
+    public Duration getSftpKeepAliveInterval()
+    {
+        return sftpKeepAliveInterval;
+    }
+
+    @NotNull
+    public Duration getSftpMaxConnectionWait()
+    {
+        return sftpMaxConnectionWait;
+    }
+
+    @Min(1)
+    public int getSftpReadParallelism()
+    {
+        return sftpReadParallelism;
+    }
+
+    @NotNull
+    @MinDataSize("64kB")
+    @MaxDataSize("1GB")
+    public DataSize getSftpReadChunkSize()
+    {
+        return sftpReadChunkSize;
+    }
+
+    public boolean isLocalMmapEnabled()
+    {
+        return localMmapEnabled;
+    }
+
+    public String getSftpCacheDirectory()
+    {
+        return sftpCacheDirectory;
+    }
+
+    @NotNull
+    @MinDataSize("8MB")
+    public DataSize getSftpCacheMaxSize()
+    {
+        return sftpCacheMaxSize;
+    }
+
+    public boolean isPageCacheEnabled()
+    {
+        return pageCacheEnabled;
+    }
+
+    @NotNull
+    public DataSize getPageCacheMaxSize()
+    {
+        return pageCacheMaxSize;
+    }
+
+    @Min(0)
+    public long getRowCountCacheMaximumSize()
+    {
+        return rowCountCacheMaximumSize;
+    }
+
+    public boolean isBlockIndexEnabled()
+    {
+        return blockIndexEnabled;
+    }
+
+    @Min(1)
+    public int getBlockIndexRows()
+    {
+        return blockIndexRows;
+    }
+
+    @DecimalMin(value = "0.0", inclusive = false)
+    @DecimalMax(value = "1.0", inclusive = false)
+    public double getBlockIndexBloomFilterFpp()
+    {
+        return blockIndexBloomFilterFpp;
+    }
+
+    public boolean isStatisticsEnabled()
+    {
+        return statisticsEnabled;
+    }
+
+    @NotNull
+    @MinDataSize("64kB")
+    public DataSize getStatisticsSampleSize()
+    {
+        return statisticsSampleSize;
+    }
+
+    public boolean isStatisticsExactEnabled()
+    {
+        return statisticsExactEnabled;
+    }
+
+    @Min(0)
+    public long getStatisticsCacheMaximumSize()
+    {
+        return statisticsCacheMaximumSize;
+    }
+
+    @Min(1)
+    public int getDecompressionThreads()
+    {
+        return decompressionThreads;
+    }
+
+    public boolean isRangeSplitsEnabled()
+    {
+        return rangeSplitsEnabled;
+    }
+
     @Config("csv.protocol")
     public CSVConfig setProtocol(String protocol)
     {
@@ -121,4 +355,228 @@ public class CSVConfig
         this.suffix = suffix;
         return this;
     }
+
+    @Config("csv.page-source-enabled")
+    public CSVConfig setPageSourceEnabled(boolean pageSourceEnabled)
+    {
+        this.pageSourceEnabled = pageSourceEnabled;
+        return this;
+    }
+
+    @Config("csv.type-inference-enabled")
+    public CSVConfig setTypeInferenceEnabled(boolean typeInferenceEnabled)
+    {
+        this.typeInferenceEnabled = typeInferenceEnabled;
+        return this;
+    }
+
+    @Config("csv.type-inference-sample-rows")
+    public CSVConfig setTypeInferenceSampleRows(int typeInferenceSampleRows)
+    {
+        this.typeInferenceSampleRows = typeInferenceSampleRows;
+        return this;
+    }
+
+    @Config("csv.type-inference-sample-size")
+    public CSVConfig setTypeInferenceSampleSize(DataSize typeInferenceSampleSize)
+    {
+        this.typeInferenceSampleSize = typeInferenceSampleSize;
+        return this;
+    }
+
+    @Config("csv.max-split-size")
+    public CSVConfig setMaxSplitSize(DataSize maxSplitSize)
+    {
+        this.maxSplitSize = maxSplitSize;
+        return this;
+    }
+
+    @Config("csv.directory-tables-enabled")
+    public CSVConfig setDirectoryTablesEnabled(boolean directoryTablesEnabled)
+    {
+        this.directoryTablesEnabled = directoryTablesEnabled;
+        return this;
+    }
+
+    @Config("csv.max-outstanding-splits")
+    public CSVConfig setMaxOutstandingSplits(int maxOutstandingSplits)
+    {
+        this.maxOutstandingSplits = maxOutstandingSplits;
+        return this;
+    }
+
+    @Config("csv.split-affinity-replicas")
+    public CSVConfig setSplitAffinityReplicas(int splitAffinityReplicas)
+    {
+        this.splitAffinityReplicas = splitAffinityReplicas;
+        return this;
+    }
+
+    @Config("csv.metadata-cache-ttl")
+    public CSVConfig setMetadataCacheTtl(Duration metadataCacheTtl)
+    {
+        this.metadataCacheTtl = metadataCacheTtl;
+        return this;
+    }
+
+    @Config("csv.metadata-refresh-interval")
+    public CSVConfig setMetadataRefreshInterval(Duration metadataRefreshInterval)
+    {
+        this.metadataRefreshInterval = metadataRefreshInterval;
+        return this;
+    }
+
+    @Config("csv.metadata-cache-maximum-size")
+    public CSVConfig setMetadataCacheMaximumSize(long metadataCacheMaximumSize)
+    {
+        this.metadataCacheMaximumSize = metadataCacheMaximumSize;
+        return this;
+    }
+
+    @Config("csv.sftp-max-connections")
+    public CSVConfig setSftpMaxConnections(int sftpMaxConnections)
+    {
+        this.sftpMaxConnections = sftpMaxConnections;
+        return this;
+    }
+
+    @Config("csv.sftp-idle-timeout")
+    public CSVConfig setSftpIdleTimeout(Duration sftpIdleTimeout)
+    {
+        this.sftpIdleTimeout = sftpIdleTimeout;
+        return this;
+    }
+
+    @Config("csv.sftp-keep-alive-interval")
+    public CSVConfig setSftpKeepAliveInterval(Duration sftpKeepAliveInterval)
+    {
+        this.sftpKeepAliveInterval = sftpKeepAliveInterval;
+        return this;
+    }
+
+    @Config("csv.sftp-max-connection-wait")
+    public CSVConfig setSftpMaxConnectionWait(Duration sftpMaxConnectionWait)
+    {
+        this.sftpMaxConnectionWait = sftpMaxConnectionWait;
+        return this;
+    }
+
+    @Config("csv.sftp-read-parallelism")
+    public CSVConfig setSftpReadParallelism(int sftpReadParallelism)
+    {
+        this.sftpReadParallelism = sftpReadParallelism;
+        return this;
+    }
+
+    @Config("csv.sftp-read-chunk-size")
+    public CSVConfig setSftpReadChunkSize(DataSize sftpReadChunkSize)
+    {
+        this.sftpReadChunkSize = sftpReadChunkSize;
+        return this;
+    }
+
+    @Config("csv.local-mmap-enabled")
+    public CSVConfig setLocalMmapEnabled(boolean localMmapEnabled)
+    {
+        this.localMmapEnabled = localMmapEnabled;
+        return this;
+    }
+
+    @Config("csv.sftp-cache-directory")
+    public CSVConfig setSftpCacheDirectory(String sftpCacheDirectory)
+    {
+        this.sftpCacheDirectory = sftpCacheDirectory;
+        return this;
+    }
+
+    @Config("csv.sftp-cache-max-size")
+    public CSVConfig setSftpCacheMaxSize(DataSize sftpCacheMaxSize)
+    {
+        this.sftpCacheMaxSize = sftpCacheMaxSize;
+        return this;
+    }
+
+    @Config("csv.page-cache-enabled")
+    public CSVConfig setPageCacheEnabled(boolean pageCacheEnabled)
+    {
+        this.pageCacheEnabled = pageCacheEnabled;
+        return this;
+    }
+
+    @Config("csv.page-cache-max-size")
+    public CSVConfig setPageCacheMaxSize(DataSize pageCacheMaxSize)
+    {
+        this.pageCacheMaxSize = pageCacheMaxSize;
+        return this;
+    }
+
+    @Config("csv.row-count-cache-maximum-size")
+    public CSVConfig setRowCountCacheMaximumSize(long rowCountCacheMaximumSize)
+    {
+        this.rowCountCacheMaximumSize = rowCountCacheMaximumSize;
+        return this;
+    }
+
+    @Config("csv.block-index-enabled")
+    public CSVConfig setBlockIndexEnabled(boolean blockIndexEnabled)
+    {
+        this.blockIndexEnabled = blockIndexEnabled;
+        return this;
+    }
+
+    @Config("csv.block-index-rows")
+    public CSVConfig setBlockIndexRows(int blockIndexRows)
+    {
+        this.blockIndexRows = blockIndexRows;
+        return this;
+    }
+
+    @Config("csv.block-index-bloom-filter-fpp")
+    public CSVConfig setBlockIndexBloomFilterFpp(double blockIndexBloomFilterFpp)
+    {
+        this.blockIndexBloomFilterFpp = blockIndexBloomFilterFpp;
+        return this;
+    }
+
+    @Config("csv.statistics-enabled")
+    public CSVConfig setStatisticsEnabled(boolean statisticsEnabled)
+    {
+        this.statisticsEnabled = statisticsEnabled;
+        return this;
+    }
+
+    @Config("csv.statistics-sample-size")
+    public CSVConfig setStatisticsSampleSize(DataSize statisticsSampleSize)
+    {
+        this.statisticsSampleSize = statisticsSampleSize;
+        return this;
+    }
+
+    @Config("csv.statistics-exact-enabled")
+    public CSVConfig setStatisticsExactEnabled(boolean statisticsExactEnabled)
+    {
+        this.statisticsExactEnabled = statisticsExactEnabled;
+        return this;
+    }
+
+    @Config("csv.statistics-cache-maximum-size")
+    public CSVConfig setStatisticsCacheMaximumSize(long statisticsCacheMaximumSize)
+    {
+        this.statisticsCacheMaximumSize = statisticsCacheMaximumSize;
+        return this;
+    }
+
+    @Config("csv.decompression-threads")
+    public CSVConfig setDecompressionThreads(int decompressionThreads)
+    {
+        this.decompressionThreads = decompressionThreads;
+        return this;
+    }
+
+    @Config("csv.range-splits-enabled")
+    public CSVConfig setRangeSplitsEnabled(boolean rangeSplitsEnabled)
+    {
+        this.rangeSplitsEnabled = rangeSplitsEnabled;
+        return this;
+    }
 }
@@ -13,14 +13,20 @@
  */
 package org.ame.presto.csv;
 
+import com.facebook.airlift.bootstrap.LifeCycleManager;
 import com.facebook.presto.spi.connector.Connector;
 import com.facebook.presto.spi.connector.ConnectorMetadata;
-import com.facebook.presto.spi.connector.ConnectorRecordSetProvider;
+import com.facebook.presto.spi.connector.ConnectorPageSourceProvider;
+import com.facebook.presto.spi.connector.ConnectorPlanOptimizerProvider;
 import com.facebook.presto.spi.connector.ConnectorSplitManager;
 import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
+import com.facebook.presto.spi.procedure.Procedure;
 import com.facebook.presto.spi.transaction.IsolationLevel;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 
+import java.util.Set;
+
 import static org.ame.presto.csv.CSVTransactionHandle.INSTANCE;
 
 public class CSVConnector
@@ -28,17 +34,26 @@ public class CSVConnector
 {
     private final CSVMetadata metadata;
     private final CSVSplitManager splitManager;
-    private final CSVRecordSetProvider recordSetProvider;
+    private final CSVPageSourceProvider pageSourceProvider;
+    private final CSVPlanOptimizerProvider planOptimizerProvider;
+    private final Set<Procedure> procedures;
+    private final LifeCycleManager lifeCycleManager;
 
     @Inject
     public CSVConnector(
+            LifeCycleManager lifeCycleManager,
             CSVMetadata metadata,
             CSVSplitManager splitManager,
-            CSVRecordSetProvider recordSetProvider)
+            CSVPageSourceProvider pageSourceProvider,
+            CSVPlanOptimizerProvider planOptimizerProvider,
+            Set<Procedure> procedures)
     {
         this.metadata = metadata;
         this.splitManager = splitManager;
-        this.recordSetProvider = recordSetProvider;
+        this.pageSourceProvider = pageSourceProvider;
+        this.planOptimizerProvider = planOptimizerProvider;
+        this.procedures = ImmutableSet.copyOf(procedures);
+        this.lifeCycleManager = lifeCycleManager;
     }
 
     @Override
@@ -60,8 +75,26 @@ public class CSVConnector
     }
 
     @Override
-    public ConnectorRecordSetProvider getRecordSetProvider()
+    public ConnectorPageSourceProvider getPageSourceProvider()
+    {
+        return pageSourceProvider;
+    }
+
+    @Override
+    public ConnectorPlanOptimizerProvider getConnectorPlanOptimizerProvider()
+    {
+        return planOptimizerProvider;
+    }
+
+    @Override
+    public Set<Procedure> getProcedures()
+    {
+        return procedures;
+    }
+
+    @Override
+    public void shutdown()
     {
-        return recordSetProvider;
+        lifeCycleManager.stop();
     }
 }
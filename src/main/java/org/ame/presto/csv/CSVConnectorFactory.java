@@ -20,10 +20,14 @@ import com.facebook.presto.spi.connector.Connector;
 import com.facebook.presto.spi.connector.ConnectorContext;
 import com.facebook.presto.spi.connector.ConnectorFactory;
 import com.google.inject.Injector;
+import org.weakref.jmx.guice.MBeanModule;
+
+import javax.management.MBeanServer;
 
 import java.util.Map;
 
 import static com.google.common.base.Throwables.throwIfUnchecked;
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
 import static java.util.Objects.requireNonNull;
 
 public class CSVConnectorFactory
@@ -48,7 +52,9 @@ public class CSVConnectorFactory
         try {
             Bootstrap app = new Bootstrap(
                     new JsonModule(),
-                    new CSVModule(context.getTypeManager()));
+                    new MBeanModule(),
+                    binder -> binder.bind(MBeanServer.class).toInstance(getPlatformMBeanServer()),
+                    new CSVModule(catalogName, context.getTypeManager()));
 
             Injector injector = app
                     .doNotInitializeLogging()
@@ -0,0 +1,447 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.common.block.BlockBuilder;
+import com.facebook.presto.common.function.SqlFunctionProperties;
+import com.facebook.presto.common.type.BigintType;
+import com.facebook.presto.common.type.BooleanType;
+import com.facebook.presto.common.type.DateType;
+import com.facebook.presto.common.type.DoubleType;
+import com.facebook.presto.common.type.TimestampType;
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.common.type.VarcharType;
+import com.facebook.presto.spi.ConnectorSession;
+import com.google.common.primitives.Longs;
+import io.airlift.slice.Slice;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.Objects.requireNonNull;
+
+// parses typed values straight from the field bytes, throwing IllegalArgumentException for malformed values
+public class CSVFieldDecoder
+{
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final ZoneId timestampZone;
+
+    public CSVFieldDecoder(ZoneId timestampZone)
+    {
+        this.timestampZone = requireNonNull(timestampZone, "timestampZone is null");
+    }
+
+    public static CSVFieldDecoder create(ConnectorSession session)
+    {
+        SqlFunctionProperties properties = session.getSqlFunctionProperties();
+        // legacy timestamps are wall clock values in the session time zone
+        if (properties.isLegacyTimestamp()) {
+            return new CSVFieldDecoder(ZoneId.of(properties.getTimeZoneKey().getId()));
+        }
+        return new CSVFieldDecoder(ZoneOffset.UTC);
+    }
+
+    public ZoneId getTimestampZone()
+    {
+        return timestampZone;
+    }
+
+    public enum FieldType
+    {
+        BOOLEAN,
+        BIGINT,
+        DOUBLE,
+        DATE,
+        TIMESTAMP,
+        VARCHAR;
+
+        public static FieldType of(Type type)
+        {
+            if (type.equals(BooleanType.BOOLEAN)) {
+                return BOOLEAN;
+            }
+            if (type.equals(BigintType.BIGINT)) {
+                return BIGINT;
+            }
+            if (type.equals(DoubleType.DOUBLE)) {
+                return DOUBLE;
+            }
+            if (type.equals(DateType.DATE)) {
+                return DATE;
+            }
+            if (type.equals(TimestampType.TIMESTAMP)) {
+                return TIMESTAMP;
+            }
+            return VARCHAR;
+        }
+
+        public Type getType()
+        {
+            switch (this) {
+                case BOOLEAN:
+                    return BooleanType.BOOLEAN;
+                case BIGINT:
+                    return BigintType.BIGINT;
+                case DOUBLE:
+                    return DoubleType.DOUBLE;
+                case DATE:
+                    return DateType.DATE;
+                case TIMESTAMP:
+                    return TimestampType.TIMESTAMP;
+                default:
+                    return VarcharType.VARCHAR;
+            }
+        }
+    }
+
+    // empty values and values that do not parse are written as nulls, except for varchar columns
+    public void write(FieldType fieldType, Type type, BlockBuilder output, Slice value)
+    {
+        if (fieldType == FieldType.VARCHAR) {
+            type.writeSlice(output, value);
+            return;
+        }
+        if (value.length() == 0) {
+            output.appendNull();
+            return;
+        }
+        try {
+            switch (fieldType) {
+                case BOOLEAN:
+                    BooleanType.BOOLEAN.writeBoolean(output, parseBoolean(value));
+                    break;
+                case BIGINT:
+                    BigintType.BIGINT.writeLong(output, parseLong(value));
+                    break;
+                case DOUBLE:
+                    DoubleType.DOUBLE.writeDouble(output, parseDouble(value));
+                    break;
+                case DATE:
+                    DateType.DATE.writeLong(output, parseDate(value));
+                    break;
+                case TIMESTAMP:
+                    TimestampType.TIMESTAMP.writeLong(output, parseTimestamp(value));
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected field type: " + fieldType);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            output.appendNull();
+        }
+    }
+
+    // the value as Presto represents it, or null for an empty or invalid field
+    public Object decode(FieldType fieldType, Slice value)
+    {
+        if (fieldType == FieldType.VARCHAR) {
+            return value;
+        }
+        if (value.length() == 0) {
+            return null;
+        }
+        try {
+            switch (fieldType) {
+                case BOOLEAN:
+                    return parseBoolean(value);
+                case DOUBLE:
+                    return parseDouble(value);
+                default:
+                    return decodeLong(fieldType, value);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // the bytes of a decoded value, the same for every spelling of the value
+    public static byte[] getValueBytes(Object value)
+    {
+        if (value instanceof Slice) {
+            return ((Slice) value).getBytes();
+        }
+        if (value instanceof Boolean) {
+            return new byte[] {(byte) ((boolean) value ? 1 : 0)};
+        }
+        if (value instanceof Double) {
+            // -0.0 equals 0.0
+            double doubleValue = (double) value;
+            return Longs.toByteArray(Double.doubleToLongBits(doubleValue == 0 ? 0 : doubleValue));
+        }
+        return Longs.toByteArray((long) value);
+    }
+
+    public long decodeLong(FieldType fieldType, Slice value)
+    {
+        switch (fieldType) {
+            case BIGINT:
+                return parseLong(value);
+            case DATE:
+                return parseDate(value);
+            case TIMESTAMP:
+                return parseTimestamp(value);
+            default:
+                throw new IllegalArgumentException("Field type is not a long: " + fieldType);
+        }
+    }
+
+    public static boolean parseBoolean(Slice value)
+    {
+        int start = trimStart(value);
+        int end = trimEnd(value, start);
+        if (equalsIgnoreCase(value, start, end, "true")) {
+            return true;
+        }
+        if (equalsIgnoreCase(value, start, end, "false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid boolean");
+    }
+
+    public static long parseLong(Slice value)
+    {
+        int start = trimStart(value);
+        int end = trimEnd(value, start);
+        if (start == end) {
+            throw new NumberFormatException("Empty number");
+        }
+        boolean negative = false;
+        byte first = value.getByte(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+            if (start == end) {
+                throw new NumberFormatException("Invalid number");
+            }
+        }
+        // accumulate negatively so that Long.MIN_VALUE can be parsed
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = value.getByte(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number");
+            }
+            if (result < Long.MIN_VALUE / 10) {
+                throw new NumberFormatException("Number out of range");
+            }
+            result *= 10;
+            if (result < Long.MIN_VALUE + digit) {
+                throw new NumberFormatException("Number out of range");
+            }
+            result -= digit;
+        }
+        if (negative) {
+            return result;
+        }
+        if (result == Long.MIN_VALUE) {
+            throw new NumberFormatException("Number out of range");
+        }
+        return -result;
+    }
+
+    public static double parseDouble(Slice value)
+    {
+        int start = trimStart(value);
+        int end = trimEnd(value, start);
+        int position = start;
+        boolean negative = false;
+        if (position < end && (value.getByte(position) == '-' || value.getByte(position) == '+')) {
+            negative = value.getByte(position) == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDot = false;
+        for (; position < end; position++) {
+            byte b = value.getByte(position);
+            if (b >= '0' && b <= '9') {
+                if (digits < MAX_EXACT_DIGITS + 1) {
+                    mantissa = mantissa * 10 + (b - '0');
+                }
+                digits++;
+                if (seenDot) {
+                    exponent--;
+                }
+            }
+            else if (b == '.' && !seenDot) {
+                seenDot = true;
+            }
+            else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Invalid number");
+        }
+        if (position < end) {
+            byte b = value.getByte(position);
+            if (b != 'e' && b != 'E') {
+                throw new NumberFormatException("Invalid number");
+            }
+            position++;
+            boolean negativeExponent = false;
+            if (position < end && (value.getByte(position) == '-' || value.getByte(position) == '+')) {
+                negativeExponent = value.getByte(position) == '-';
+                position++;
+            }
+            if (position == end) {
+                throw new NumberFormatException("Invalid number");
+            }
+            int explicitExponent = 0;
+            for (; position < end; position++) {
+                int digit = value.getByte(position) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Invalid number");
+                }
+                if (explicitExponent < 100_000) {
+                    explicitExponent = explicitExponent * 10 + digit;
+                }
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (digits > MAX_EXACT_DIGITS || exponent < -22 || exponent > 22) {
+            // the value cannot be computed with a single correctly rounded operation
+            return Double.parseDouble(value.toString(start, end - start, US_ASCII));
+        }
+        double result = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -result : result;
+    }
+
+    // yyyy-MM-dd as days since the epoch
+    public static long parseDate(Slice value)
+    {
+        int start = trimStart(value);
+        int end = trimEnd(value, start);
+        if (end - start != 10 || value.getByte(start + 4) != '-' || value.getByte(start + 7) != '-') {
+            throw new IllegalArgumentException("Invalid date");
+        }
+        try {
+            return LocalDate.of(
+                    parseDigits(value, start, 4),
+                    parseDigits(value, start + 5, 2),
+                    parseDigits(value, start + 8, 2)).toEpochDay();
+        }
+        catch (DateTimeException e) {
+            throw new IllegalArgumentException("Invalid date", e);
+        }
+    }
+
+    // yyyy-MM-dd[( |T)HH:mm[:ss[.fraction]]] as milliseconds since the epoch
+    public long parseTimestamp(Slice value)
+    {
+        int start = trimStart(value);
+        int end = trimEnd(value, start);
+        int length = end - start;
+        if (length < 10 || value.getByte(start + 4) != '-' || value.getByte(start + 7) != '-') {
+            throw new IllegalArgumentException("Invalid timestamp");
+        }
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int nanos = 0;
+        if (length > 10) {
+            byte separator = value.getByte(start + 10);
+            if ((separator != ' ' && separator != 'T') || length < 16 || value.getByte(start + 13) != ':') {
+                throw new IllegalArgumentException("Invalid timestamp");
+            }
+            hour = parseDigits(value, start + 11, 2);
+            minute = parseDigits(value, start + 14, 2);
+            if (length > 16) {
+                if (length < 19 || value.getByte(start + 16) != ':') {
+                    throw new IllegalArgumentException("Invalid timestamp");
+                }
+                second = parseDigits(value, start + 17, 2);
+                if (length > 19) {
+                    int fractionDigits = length - 20;
+                    if (value.getByte(start + 19) != '.' || fractionDigits < 1 || fractionDigits > 9) {
+                        throw new IllegalArgumentException("Invalid timestamp");
+                    }
+                    nanos = parseDigits(value, start + 20, fractionDigits);
+                    for (int i = fractionDigits; i < 9; i++) {
+                        nanos *= 10;
+                    }
+                }
+            }
+        }
+        try {
+            LocalDateTime dateTime = LocalDateTime.of(
+                    parseDigits(value, start, 4),
+                    parseDigits(value, start + 5, 2),
+                    parseDigits(value, start + 8, 2),
+                    hour,
+                    minute,
+                    second,
+                    nanos);
+            return dateTime.atZone(timestampZone).toInstant().toEpochMilli();
+        }
+        catch (DateTimeException e) {
+            throw new IllegalArgumentException("Invalid timestamp", e);
+        }
+    }
+
+    private static int parseDigits(Slice value, int start, int length)
+    {
+        int result = 0;
+        for (int i = start; i < start + length; i++) {
+            int digit = value.getByte(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid digit");
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    private static boolean equalsIgnoreCase(Slice value, int start, int end, String expected)
+    {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            // ASCII letters only differ in the case bit
+            if ((value.getByte(start + i) | 0x20) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int trimStart(Slice value)
+    {
+        int start = 0;
+        while (start < value.length() && value.getByte(start) == ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(Slice value, int start)
+    {
+        int end = value.length();
+        while (end > start && value.getByte(end - 1) == ' ') {
+            end--;
+        }
+        return end;
+    }
+}
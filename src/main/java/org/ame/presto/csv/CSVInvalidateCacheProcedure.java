@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.spi.procedure.Procedure;
+import com.facebook.presto.spi.procedure.Procedure.Argument;
+import com.google.common.collect.ImmutableList;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Optional;
+
+import static com.facebook.presto.common.block.MethodHandleUtil.methodHandle;
+import static com.facebook.presto.common.type.StandardTypes.VARCHAR;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+// CALL csv.system.invalidate_metadata_cache([schema_name[, table_name]])
+public class CSVInvalidateCacheProcedure
+        implements Provider<Procedure>
+{
+    private static final MethodHandle INVALIDATE_METADATA_CACHE = methodHandle(
+            CSVInvalidateCacheProcedure.class,
+            "invalidateMetadataCache",
+            String.class,
+            String.class);
+
+    private final CSVClient csvClient;
+
+    @Inject
+    public CSVInvalidateCacheProcedure(CSVClient csvClient)
+    {
+        this.csvClient = requireNonNull(csvClient, "csvClient is null");
+    }
+
+    @Override
+    public Procedure get()
+    {
+        return new Procedure(
+                "system",
+                "invalidate_metadata_cache",
+                ImmutableList.of(
+                        new Argument("schema_name", VARCHAR, false, null),
+                        new Argument("table_name", VARCHAR, false, null)),
+                INVALIDATE_METADATA_CACHE.bindTo(this));
+    }
+
+    public void invalidateMetadataCache(String schemaName, String tableName)
+    {
+        checkArgument(schemaName != null || tableName == null, "schema_name is required with table_name");
+        csvClient.invalidateCache(Optional.ofNullable(schemaName), Optional.ofNullable(tableName));
+    }
+}
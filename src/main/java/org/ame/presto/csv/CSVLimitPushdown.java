@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.spi.ConnectorPlanOptimizer;
+import com.facebook.presto.spi.ConnectorPlanRewriter;
+import com.facebook.presto.spi.ConnectorSession;
+import com.facebook.presto.spi.TableHandle;
+import com.facebook.presto.spi.VariableAllocator;
+import com.facebook.presto.spi.plan.LimitNode;
+import com.facebook.presto.spi.plan.PlanNode;
+import com.facebook.presto.spi.plan.PlanNodeIdAllocator;
+import com.facebook.presto.spi.plan.TableScanNode;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Optional;
+
+import static com.facebook.presto.spi.ConnectorPlanRewriter.rewriteWith;
+
+// Passes the count of a limit that sits right on top of a table scan into the table layout, so that
+// every split stops reading once it has returned that many rows. The limit itself stays in the plan.
+public class CSVLimitPushdown
+        implements ConnectorPlanOptimizer
+{
+    @Override
+    public PlanNode optimize(PlanNode maxSubplan, ConnectorSession session, VariableAllocator variableAllocator, PlanNodeIdAllocator idAllocator)
+    {
+        return rewriteWith(new Rewriter(idAllocator), maxSubplan);
+    }
+
+    private static class Rewriter
+            extends ConnectorPlanRewriter<Void>
+    {
+        private final PlanNodeIdAllocator idAllocator;
+
+        private Rewriter(PlanNodeIdAllocator idAllocator)
+        {
+            this.idAllocator = idAllocator;
+        }
+
+        @Override
+        public PlanNode visitLimit(LimitNode node, RewriteContext<Void> context)
+        {
+            if (!(node.getSource() instanceof TableScanNode)) {
+                return context.defaultRewrite(node);
+            }
+            TableScanNode tableScan = (TableScanNode) node.getSource();
+            TableHandle table = tableScan.getTable();
+            if (!table.getLayout().isPresent() || !(table.getLayout().get() instanceof CSVTableLayoutHandle)) {
+                return node;
+            }
+            CSVTableLayoutHandle layout = (CSVTableLayoutHandle) table.getLayout().get();
+            if (layout.getLimit().isPresent() && layout.getLimit().getAsLong() <= node.getCount()) {
+                return node;
+            }
+            TableScanNode limitedTableScan = new TableScanNode(
+                    tableScan.getSourceLocation(),
+                    idAllocator.getNextId(),
+                    new TableHandle(table.getConnectorId(), table.getConnectorHandle(), table.getTransaction(), Optional.of(layout.withLimit(node.getCount()))),
+                    tableScan.getOutputVariables(),
+                    tableScan.getAssignments(),
+                    tableScan.getCurrentConstraint(),
+                    tableScan.getEnforcedConstraint());
+            return node.replaceChildren(ImmutableList.of(limitedTableScan));
+        }
+    }
+}
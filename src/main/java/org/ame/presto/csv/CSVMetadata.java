@@ -13,6 +13,7 @@
  */
 package org.ame.presto.csv;
 
+import com.facebook.presto.common.predicate.TupleDomain;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ColumnMetadata;
 import com.facebook.presto.spi.ConnectorSession;
@@ -26,6 +27,7 @@ import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.TableNotFoundException;
 import com.facebook.presto.spi.connector.ConnectorMetadata;
+import com.facebook.presto.spi.statistics.TableStatistics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
@@ -36,17 +38,20 @@ import java.util.Optional;
 import java.util.Set;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Locale.ENGLISH;
 import static java.util.Objects.requireNonNull;
 
 public class CSVMetadata
         implements ConnectorMetadata
 {
     private final CSVClient csvClient;
+    private final CSVStatisticsProvider statisticsProvider;
 
     @Inject
-    public CSVMetadata(CSVClient client)
+    public CSVMetadata(CSVClient client, CSVStatisticsProvider statisticsProvider)
     {
         this.csvClient = client;
+        this.statisticsProvider = requireNonNull(statisticsProvider, "statisticsProvider is null");
     }
 
     @Override
@@ -76,7 +81,9 @@ public class CSVMetadata
             Optional<Set<ColumnHandle>> desiredColumns)
     {
         CSVTableHandle tableHandle = (CSVTableHandle) table;
-        ConnectorTableLayout layout = new ConnectorTableLayout(new CSVTableLayoutHandle(tableHandle));
+        // partition directories are pruned against the constraint when listing splits, and readers skip the
+        // records that do not match it; the constraint stays unenforced, as Presto still evaluates it
+        ConnectorTableLayout layout = new ConnectorTableLayout(new CSVTableLayoutHandle(tableHandle, constraint.getSummary()));
         return ImmutableList.of(new ConnectorTableLayoutResult(layout, constraint.getSummary()));
     }
 
@@ -115,8 +122,10 @@ public class CSVMetadata
         }
         ImmutableMap.Builder<String, ColumnHandle> columnHandles = ImmutableMap.builder();
         int i = 0;
-        for (ColumnMetadata column : table.get().getColumnsMetadata()) {
-            columnHandles.put(column.getName(), new CSVColumnHandle(column.getName(), column.getType(), i++));
+        for (CSVColumn column : table.get().getColumns()) {
+            // the names match those of the table metadata, where ColumnMetadata lowercases them
+            String name = column.getName().toLowerCase(ENGLISH);
+            columnHandles.put(name, new CSVColumnHandle(name, column.getType(), i++, column.isPartitionKey()));
         }
         return columnHandles.build();
     }
@@ -127,6 +136,24 @@ public class CSVMetadata
         return ((CSVColumnHandle) columnHandle).getColumnMetadata();
     }
 
+    @Override
+    public TableStatistics getTableStatistics(
+            ConnectorSession session,
+            ConnectorTableHandle tableHandle,
+            Optional<ConnectorTableLayoutHandle> tableLayoutHandle,
+            List<ColumnHandle> columnHandles,
+            Constraint<ColumnHandle> constraint)
+    {
+        // partition directories that the layout rules out are not counted
+        TupleDomain<ColumnHandle> tupleDomain = tableLayoutHandle
+                .map(layout -> ((CSVTableLayoutHandle) layout).getTupleDomain())
+                .orElse(TupleDomain.all());
+        List<CSVColumnHandle> columns = columnHandles.stream()
+                .map(CSVColumnHandle.class::cast)
+                .collect(toImmutableList());
+        return statisticsProvider.getTableStatistics((CSVTableHandle) tableHandle, tupleDomain, columns);
+    }
+
     @Override
     public Map<SchemaTableName, List<ColumnMetadata>> listTableColumns(ConnectorSession session, SchemaTablePrefix prefix)
     {
@@ -15,6 +15,7 @@ package org.ame.presto.csv;
 
 import com.facebook.presto.common.type.Type;
 import com.facebook.presto.common.type.TypeManager;
+import com.facebook.presto.spi.procedure.Procedure;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.deser.std.FromStringDeserializer;
 import com.google.inject.Binder;
@@ -28,33 +29,48 @@ import static com.facebook.airlift.json.JsonBinder.jsonBinder;
 import static com.facebook.airlift.json.JsonCodec.listJsonCodec;
 import static com.facebook.airlift.json.JsonCodecBinder.jsonCodecBinder;
 import static com.facebook.presto.common.type.TypeSignature.parseTypeSignature;
+import static com.google.inject.multibindings.Multibinder.newSetBinder;
 import static java.util.Objects.requireNonNull;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class CSVModule
         implements Module
 {
+    private final String connectorId;
     private final TypeManager typeManager;
 
-    public CSVModule(TypeManager typeManager)
+    public CSVModule(String connectorId, TypeManager typeManager)
     {
+        this.connectorId = requireNonNull(connectorId, "connectorId is null");
         this.typeManager = typeManager;
     }
 
     @Override
     public void configure(Binder binder)
     {
+        binder.bind(CSVConnectorId.class).toInstance(new CSVConnectorId(connectorId));
         binder.bind(TypeManager.class).toInstance(typeManager);
         binder.bind(CSVConnector.class).in(Scopes.SINGLETON);
         binder.bind(CSVMetadata.class).in(Scopes.SINGLETON);
         binder.bind(CSVClient.class).in(Scopes.SINGLETON);
         binder.bind(CSVSplitManager.class).in(Scopes.SINGLETON);
-        binder.bind(CSVRecordSetProvider.class).in(Scopes.SINGLETON);
+        binder.bind(CSVPageSourceProvider.class).in(Scopes.SINGLETON);
+        binder.bind(CSVPageCache.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(CSVPageCache.class).as(generatedNameOf(CSVPageCache.class, connectorId));
+        binder.bind(CSVRowCountCache.class).in(Scopes.SINGLETON);
+        binder.bind(CSVPlanOptimizerProvider.class).in(Scopes.SINGLETON);
+        binder.bind(CSVBlockIndexManager.class).in(Scopes.SINGLETON);
+        binder.bind(CSVStatisticsProvider.class).in(Scopes.SINGLETON);
         binder.bind(CSVHandleResolver.class).in(Scopes.SINGLETON);
+        newSetBinder(binder, Procedure.class).addBinding().toProvider(CSVInvalidateCacheProcedure.class).in(Scopes.SINGLETON);
+        newSetBinder(binder, Procedure.class).addBinding().toProvider(CSVBuildIndexProcedure.class).in(Scopes.SINGLETON);
 
         configBinder(binder).bindConfig(CSVConfig.class);
 
         jsonBinder(binder).addDeserializerBinding(Type.class).to(TypeDeserializer.class);
         jsonCodecBinder(binder).bindMapJsonCodec(String.class, listJsonCodec(CSVTable.class));
+        jsonCodecBinder(binder).bindJsonCodec(CSVBlockIndex.class);
     }
 
     public static final class TypeDeserializer
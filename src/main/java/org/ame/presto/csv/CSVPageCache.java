@@ -0,0 +1,371 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.common.Page;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Objects.requireNonNull;
+
+// Keeps the pages of small splits on the worker, so that tables that are scanned again and again
+// are neither read nor parsed. Pages are keyed by the version of the file, the byte range and the
+// columns, and the whole cache is limited by the retained size of the pages. Its size and hit rate are
+// exported over JMX, so that the memory of the cache can be watched through the jmx connector.
+public class CSVPageCache
+{
+    private final boolean enabled;
+    private final long maxSize;
+    // larger splits would push most of the cache out at once
+    private final long maxEntrySize;
+    private final Cache<CacheKey, List<Page>> cache;
+    private final AtomicLong size = new AtomicLong();
+
+    @Inject
+    public CSVPageCache(CSVConfig config)
+    {
+        requireNonNull(config, "config is null");
+        this.enabled = config.isPageCacheEnabled();
+        this.maxSize = config.getPageCacheMaxSize().toBytes();
+        this.maxEntrySize = maxSize / 8;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize)
+                .<CacheKey, List<Page>>weigher((key, pages) -> (int) Math.min(Integer.MAX_VALUE, getRetainedSize(pages)))
+                .removalListener(notification -> size.addAndGet(-getRetainedSize(notification.getValue())))
+                .recordStats()
+                .build();
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        cache.invalidateAll();
+    }
+
+    public ConnectorPageSource getPageSource(CSVSplit split, List<CSVColumnHandle> columns, CSVFieldDecoder decoder, TupleDomain<ColumnHandle> constraint, PageSourceFactory pageSourceFactory)
+    {
+        if (!enabled) {
+            return pageSourceFactory.create();
+        }
+        CacheKey key = new CacheKey(split, columns, decoder.getTimestampZone(), constraint);
+        List<Page> pages = cache.getIfPresent(key);
+        if (pages != null) {
+            return new CachedPageSource(pages, split.getLength());
+        }
+        return new RecordingPageSource(pageSourceFactory.create(), key);
+    }
+
+    @Managed
+    public long getSize()
+    {
+        return size.get();
+    }
+
+    @Managed
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    @Managed
+    public long getEntryCount()
+    {
+        return cache.size();
+    }
+
+    @Managed
+    public long getHitCount()
+    {
+        return cache.stats().hitCount();
+    }
+
+    @Managed
+    public long getMissCount()
+    {
+        return cache.stats().missCount();
+    }
+
+    @Managed
+    public long getEvictionCount()
+    {
+        return cache.stats().evictionCount();
+    }
+
+    private void put(CacheKey key, List<Page> pages)
+    {
+        // pages of older versions of the file can no longer be read
+        cache.asMap().keySet().removeIf(cached -> cached.isOlderVersionOf(key));
+        size.addAndGet(getRetainedSize(pages));
+        cache.put(key, ImmutableList.copyOf(pages));
+    }
+
+    private static long getRetainedSize(List<Page> pages)
+    {
+        long retainedSize = 0;
+        for (Page page : pages) {
+            retainedSize += page.getRetainedSizeInBytes();
+        }
+        return retainedSize;
+    }
+
+    public interface PageSourceFactory
+    {
+        ConnectorPageSource create();
+    }
+
+    private static final class CacheKey
+    {
+        private final String schemaName;
+        private final String tableName;
+        private final String path;
+        private final long fileSize;
+        private final long fileModificationTime;
+        private final long start;
+        private final long length;
+        // a split with a limit returns only some of its rows
+        private final OptionalLong limit;
+        private final List<String> columns;
+        private final ZoneId timestampZone;
+        // the pages only hold the rows that match the constraint
+        private final TupleDomain<ColumnHandle> constraint;
+
+        private CacheKey(CSVSplit split, List<CSVColumnHandle> columns, ZoneId timestampZone, TupleDomain<ColumnHandle> constraint)
+        {
+            this.schemaName = split.getSchemaName();
+            this.tableName = split.getTableName();
+            this.path = split.getPath();
+            this.fileSize = split.getFileSize();
+            this.fileModificationTime = split.getFileModificationTime();
+            this.start = split.getStart();
+            this.length = split.getLength();
+            this.limit = split.getLimit();
+            // the type and position of a column can change when the table is read again
+            this.columns = columns.stream()
+                    .map(column -> column.getColumnName() + ":" + column.getColumnType() + ":" + column.getOrdinalPosition() + ":" + column.isPartitionKey())
+                    .collect(toImmutableList());
+            this.timestampZone = timestampZone;
+            this.constraint = constraint;
+        }
+
+        private boolean isOlderVersionOf(CacheKey other)
+        {
+            return schemaName.equals(other.schemaName)
+                    && tableName.equals(other.tableName)
+                    && path.equals(other.path)
+                    && (fileSize != other.fileSize || fileModificationTime != other.fileModificationTime);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(schemaName, tableName, path, fileSize, fileModificationTime, start, length, limit, columns, timestampZone, constraint);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey that = (CacheKey) o;
+            return Objects.equals(this.schemaName, that.schemaName)
+                    && Objects.equals(this.tableName, that.tableName)
+                    && Objects.equals(this.path, that.path)
+                    && this.fileSize == that.fileSize
+                    && this.fileModificationTime == that.fileModificationTime
+                    && this.start == that.start
+                    && this.length == that.length
+                    && Objects.equals(this.limit, that.limit)
+                    && Objects.equals(this.columns, that.columns)
+                    && Objects.equals(this.timestampZone, that.timestampZone)
+                    && Objects.equals(this.constraint, that.constraint);
+        }
+
+        @Override
+        public String toString()
+        {
+            return toStringHelper(this)
+                    .add("path", path)
+                    .add("start", start)
+                    .add("length", length)
+                    .add("columns", columns)
+                    .toString();
+        }
+    }
+
+    private static class CachedPageSource
+            implements ConnectorPageSource
+    {
+        private final List<Page> pages;
+        private final long completedBytes;
+        private int position;
+        private long completedPositions;
+        // the pages that are not returned yet
+        private long retainedSize;
+
+        private CachedPageSource(List<Page> pages, long completedBytes)
+        {
+            this.pages = pages;
+            this.completedBytes = completedBytes;
+            this.retainedSize = getRetainedSize(pages);
+        }
+
+        @Override
+        public long getCompletedBytes()
+        {
+            return isFinished() ? completedBytes : 0;
+        }
+
+        @Override
+        public long getCompletedPositions()
+        {
+            return completedPositions;
+        }
+
+        @Override
+        public long getReadTimeNanos()
+        {
+            return 0;
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return position == pages.size();
+        }
+
+        @Override
+        public Page getNextPage()
+        {
+            if (isFinished()) {
+                return null;
+            }
+            Page page = pages.get(position++);
+            completedPositions += page.getPositionCount();
+            retainedSize -= page.getRetainedSizeInBytes();
+            return page;
+        }
+
+        @Override
+        public long getSystemMemoryUsage()
+        {
+            return retainedSize;
+        }
+
+        @Override
+        public void close()
+        {
+            position = pages.size();
+            retainedSize = 0;
+        }
+    }
+
+    // passes the pages of a split through and caches them once the split has been read completely
+    private class RecordingPageSource
+            implements ConnectorPageSource
+    {
+        private final ConnectorPageSource delegate;
+        private final CacheKey key;
+        private List<Page> pages = new ArrayList<>();
+        private long pagesSize;
+
+        private RecordingPageSource(ConnectorPageSource delegate, CacheKey key)
+        {
+            this.delegate = requireNonNull(delegate, "delegate is null");
+            this.key = requireNonNull(key, "key is null");
+        }
+
+        @Override
+        public long getCompletedBytes()
+        {
+            return delegate.getCompletedBytes();
+        }
+
+        @Override
+        public long getCompletedPositions()
+        {
+            return delegate.getCompletedPositions();
+        }
+
+        @Override
+        public long getReadTimeNanos()
+        {
+            return delegate.getReadTimeNanos();
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public Page getNextPage()
+        {
+            Page page = delegate.getNextPage();
+            if (pages == null) {
+                return page;
+            }
+            if (page != null) {
+                pagesSize += page.getRetainedSizeInBytes();
+                if (pagesSize > maxEntrySize) {
+                    pages = null;
+                    return page;
+                }
+                pages.add(page);
+            }
+            if (delegate.isFinished()) {
+                put(key, pages);
+                pages = null;
+            }
+            return page;
+        }
+
+        @Override
+        public long getSystemMemoryUsage()
+        {
+            return delegate.getSystemMemoryUsage() + (pages == null ? 0 : pagesSize);
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            // a split that was not read to the end is not cached
+            pages = null;
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.common.Page;
+import com.facebook.presto.common.PageBuilder;
+import com.facebook.presto.common.block.BlockBuilder;
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.ConnectorPageSource;
+import io.airlift.slice.Slice;
+import org.ame.presto.csv.CSVFieldDecoder.FieldType;
+
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static io.airlift.slice.Slices.utf8Slice;
+import static java.util.Objects.requireNonNull;
+
+public class CSVPageSource
+        implements ConnectorPageSource
+{
+    private static final int MAX_ROWS_PER_PAGE = 8192;
+    private final List<Type> types;
+    private final int[] ordinalPositions;
+    private final FieldType[] fieldTypes;
+    // values of the partition keys, or null for the columns read from the file
+    private final Slice[] partitionValues;
+    private final boolean[] partitionKeys;
+    private final CSVFieldDecoder decoder;
+    private final CSVRecordReader reader;
+    private final PageBuilder pageBuilder;
+    private long completedPositions;
+    private boolean finished;
+
+    public CSVPageSource(CSVClient csvClient, CSVSplit split, List<CSVColumnHandle> columnHandles, CSVFieldDecoder decoder, CSVRowFilter filter)
+    {
+        this.types = columnHandles.stream()
+                .map(CSVColumnHandle::getColumnType)
+                .collect(toImmutableList());
+        this.ordinalPositions = new int[columnHandles.size()];
+        this.fieldTypes = new FieldType[columnHandles.size()];
+        this.partitionValues = new Slice[columnHandles.size()];
+        this.partitionKeys = new boolean[columnHandles.size()];
+        for (int i = 0; i < columnHandles.size(); i++) {
+            CSVColumnHandle columnHandle = columnHandles.get(i);
+            ordinalPositions[i] = columnHandle.getOrdinalPosition();
+            fieldTypes[i] = FieldType.of(columnHandle.getColumnType());
+            partitionKeys[i] = columnHandle.isPartitionKey();
+            String partitionValue = split.getPartitionValues().get(columnHandle.getColumnName());
+            if (partitionKeys[i] && partitionValue != null) {
+                partitionValues[i] = utf8Slice(partitionValue);
+            }
+        }
+        this.decoder = requireNonNull(decoder, "decoder is null");
+        this.pageBuilder = new PageBuilder(types);
+        this.reader = new CSVRecordReader(csvClient, split, columnHandles, filter);
+    }
+
+    @Override
+    public long getCompletedBytes()
+    {
+        return reader.getCompletedBytes();
+    }
+
+    @Override
+    public long getCompletedPositions()
+    {
+        return completedPositions;
+    }
+
+    @Override
+    public long getReadTimeNanos()
+    {
+        return reader.getReadTimeNanos();
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        return finished && pageBuilder.isEmpty();
+    }
+
+    @Override
+    public Page getNextPage()
+    {
+        if (finished) {
+            return null;
+        }
+        int rows = 0;
+        while (!pageBuilder.isFull() && rows < MAX_ROWS_PER_PAGE) {
+            if (!reader.advance()) {
+                finished = true;
+                break;
+            }
+            pageBuilder.declarePosition();
+            int fieldCount = reader.getFieldCount();
+            for (int column = 0; column < types.size(); column++) {
+                BlockBuilder output = pageBuilder.getBlockBuilder(column);
+                int ordinalPosition = ordinalPositions[column];
+                if (partitionKeys[column]) {
+                    if (partitionValues[column] == null) {
+                        output.appendNull();
+                    }
+                    else {
+                        decoder.write(fieldTypes[column], types.get(column), output, partitionValues[column]);
+                    }
+                }
+                else if (ordinalPosition >= fieldCount) {
+                    output.appendNull();
+                }
+                else {
+                    decoder.write(fieldTypes[column], types.get(column), output, reader.getSlice(ordinalPosition));
+                }
+            }
+            rows++;
+        }
+        if (pageBuilder.isEmpty()) {
+            return null;
+        }
+        Page page = pageBuilder.build();
+        pageBuilder.reset();
+        completedPositions += page.getPositionCount();
+        return page;
+    }
+
+    @Override
+    public long getSystemMemoryUsage()
+    {
+        return reader.getRetainedSizeInBytes() + pageBuilder.getRetainedSizeInBytes();
+    }
+
+    @Override
+    public void close()
+    {
+        finished = true;
+        reader.close();
+    }
+}
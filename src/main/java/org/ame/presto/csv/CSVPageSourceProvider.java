@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.facebook.presto.spi.ConnectorSession;
+import com.facebook.presto.spi.ConnectorSplit;
+import com.facebook.presto.spi.ConnectorTableLayoutHandle;
+import com.facebook.presto.spi.RecordPageSource;
+import com.facebook.presto.spi.SplitContext;
+import com.facebook.presto.spi.connector.ConnectorPageSourceProvider;
+import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
+
+import javax.inject.Inject;
+
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+
+public class CSVPageSourceProvider
+        implements ConnectorPageSourceProvider
+{
+    private final CSVClient csvClient;
+    private final CSVPageCache pageCache;
+    private final CSVRowCountCache rowCountCache;
+    private final boolean pageSourceEnabled;
+
+    @Inject
+    public CSVPageSourceProvider(CSVClient csvClient, CSVPageCache pageCache, CSVRowCountCache rowCountCache, CSVConfig config)
+    {
+        this.csvClient = requireNonNull(csvClient, "csvClient is null");
+        this.pageCache = requireNonNull(pageCache, "pageCache is null");
+        this.rowCountCache = requireNonNull(rowCountCache, "rowCountCache is null");
+        this.pageSourceEnabled = requireNonNull(config, "config is null").isPageSourceEnabled();
+    }
+
+    @Override
+    public ConnectorPageSource createPageSource(
+            ConnectorTransactionHandle transactionHandle,
+            ConnectorSession session,
+            ConnectorSplit split,
+            ConnectorTableLayoutHandle layout,
+            List<ColumnHandle> columns,
+            SplitContext splitContext)
+    {
+        requireNonNull(split, "split is null");
+        CSVSplit csvSplit = (CSVSplit) split;
+        List<CSVColumnHandle> handles = columns.stream().map(c -> (CSVColumnHandle) c).collect(toList());
+        CSVFieldDecoder decoder = CSVFieldDecoder.create(session);
+        TupleDomain<ColumnHandle> constraint = ((CSVTableLayoutHandle) layout).getTupleDomain();
+        CSVRowFilter filter = CSVRowFilter.create(constraint, decoder);
+        if (handles.isEmpty() && filter.isAll()) {
+            // only the number of rows is needed
+            return rowCountCache.getPageSource(csvSplit, () -> new CSVRecordReader(csvClient, csvSplit, handles, filter));
+        }
+        return pageCache.getPageSource(csvSplit, handles, decoder, constraint, () -> {
+            if (!pageSourceEnabled) {
+                return new RecordPageSource(new CSVRecordSet(csvClient, csvSplit, handles, decoder, filter));
+            }
+            return new CSVPageSource(csvClient, csvSplit, handles, decoder, filter);
+        });
+    }
+}
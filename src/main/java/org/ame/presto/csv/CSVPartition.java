@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+public class CSVPartition
+{
+    private final String path;
+    private final boolean directory;
+    // partition keys of the directories on the path, keys with null values are left out
+    private final Map<String, String> values;
+
+    public CSVPartition(String path, boolean directory, Map<String, String> values)
+    {
+        this.path = requireNonNull(path, "path is null");
+        this.directory = directory;
+        this.values = ImmutableMap.copyOf(requireNonNull(values, "values is null"));
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public boolean isDirectory()
+    {
+        return directory;
+    }
+
+    public Map<String, String> getValues()
+    {
+        return values;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("path", path)
+                .add("values", values)
+                .toString();
+    }
+}
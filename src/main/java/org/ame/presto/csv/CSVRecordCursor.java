@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.RecordCursor;
+import io.airlift.slice.Slice;
+import org.ame.presto.csv.CSVFieldDecoder.FieldType;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.slice.Slices.utf8Slice;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+public class CSVRecordCursor
+        implements RecordCursor
+{
+    private final List<CSVColumnHandle> columnHandles;
+    private final int[] ordinalPositions;
+    private final FieldType[] fieldTypes;
+    // values of the partition keys, or null for the columns read from the file
+    private final Slice[] partitionValues;
+    private final boolean[] partitionKeys;
+    private final CSVFieldDecoder decoder;
+    private final CSVRecordReader reader;
+
+    // typed values of the current row, decoded on first access
+    private final long[] decodedRows;
+    private final boolean[] nulls;
+    private final long[] longValues;
+    private final double[] doubleValues;
+    private final boolean[] booleanValues;
+    private long row;
+
+    public CSVRecordCursor(CSVClient csvClient, CSVSplit split, List<CSVColumnHandle> columnHandles, CSVFieldDecoder decoder, CSVRowFilter filter)
+    {
+        this.columnHandles = columnHandles;
+        this.ordinalPositions = new int[columnHandles.size()];
+        this.fieldTypes = new FieldType[columnHandles.size()];
+        this.partitionValues = new Slice[columnHandles.size()];
+        this.partitionKeys = new boolean[columnHandles.size()];
+        for (int i = 0; i < columnHandles.size(); i++) {
+            CSVColumnHandle columnHandle = columnHandles.get(i);
+            ordinalPositions[i] = columnHandle.getOrdinalPosition();
+            fieldTypes[i] = FieldType.of(columnHandle.getColumnType());
+            partitionKeys[i] = columnHandle.isPartitionKey();
+            String partitionValue = split.getPartitionValues().get(columnHandle.getColumnName());
+            if (partitionKeys[i] && partitionValue != null) {
+                partitionValues[i] = utf8Slice(partitionValue);
+            }
+        }
+        this.decoder = requireNonNull(decoder, "decoder is null");
+        this.decodedRows = new long[columnHandles.size()];
+        Arrays.fill(decodedRows, -1);
+        this.nulls = new boolean[columnHandles.size()];
+        this.longValues = new long[columnHandles.size()];
+        this.doubleValues = new double[columnHandles.size()];
+        this.booleanValues = new boolean[columnHandles.size()];
+        this.reader = new CSVRecordReader(csvClient, split, columnHandles, filter);
+    }
+
+    @Override
+    public long getCompletedBytes()
+    {
+        return reader.getCompletedBytes();
+    }
+
+    @Override
+    public long getReadTimeNanos()
+    {
+        return reader.getReadTimeNanos();
+    }
+
+    @Override
+    public Type getType(int field)
+    {
+        checkArgument(field < columnHandles.size(), "Invalid field index");
+        return columnHandles.get(field).getColumnType();
+    }
+
+    @Override
+    public boolean advanceNextPosition()
+    {
+        row++;
+        return reader.advance();
+    }
+
+    @Override
+    public boolean getBoolean(int field)
+    {
+        checkFieldType(field, FieldType.BOOLEAN);
+        decode(field);
+        return booleanValues[field];
+    }
+
+    @Override
+    public long getLong(int field)
+    {
+        checkFieldType(field, FieldType.BIGINT, FieldType.DATE, FieldType.TIMESTAMP);
+        decode(field);
+        return longValues[field];
+    }
+
+    @Override
+    public double getDouble(int field)
+    {
+        checkFieldType(field, FieldType.DOUBLE);
+        decode(field);
+        return doubleValues[field];
+    }
+
+    @Override
+    public Slice getSlice(int field)
+    {
+        checkFieldType(field, FieldType.VARCHAR);
+        if (partitionKeys[field]) {
+            return partitionValues[field];
+        }
+        return reader.getSlice(ordinalPositions[field]);
+    }
+
+    @Override
+    public Object getObject(int field)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isNull(int field)
+    {
+        checkArgument(field < columnHandles.size(), "Invalid field index");
+        checkState(!reader.isClosed(), "Cursor is closed");
+        decode(field);
+        return nulls[field];
+    }
+
+    @Override
+    public long getSystemMemoryUsage()
+    {
+        return reader.getRetainedSizeInBytes();
+    }
+
+    @Override
+    public void close()
+    {
+        reader.close();
+    }
+
+    private void decode(int field)
+    {
+        if (decodedRows[field] == row) {
+            return;
+        }
+        decodedRows[field] = row;
+        if (partitionKeys[field]) {
+            nulls[field] = partitionValues[field] == null;
+            return;
+        }
+        int ordinalPosition = ordinalPositions[field];
+        if (ordinalPosition >= reader.getFieldCount()) {
+            nulls[field] = true;
+            return;
+        }
+        FieldType fieldType = fieldTypes[field];
+        if (fieldType == FieldType.VARCHAR) {
+            nulls[field] = false;
+            return;
+        }
+        Slice value = reader.getSlice(ordinalPosition);
+        if (value.length() == 0) {
+            nulls[field] = true;
+            return;
+        }
+        try {
+            switch (fieldType) {
+                case BOOLEAN:
+                    booleanValues[field] = CSVFieldDecoder.parseBoolean(value);
+                    break;
+                case DOUBLE:
+                    doubleValues[field] = CSVFieldDecoder.parseDouble(value);
+                    break;
+                default:
+                    longValues[field] = decoder.decodeLong(fieldType, value);
+                    break;
+            }
+            nulls[field] = false;
+        }
+        catch (IllegalArgumentException e) {
+            // values that do not parse are returned as nulls
+            nulls[field] = true;
+        }
+    }
+
+    private void checkFieldType(int field, FieldType... expected)
+    {
+        FieldType actual = fieldTypes[field];
+        for (FieldType fieldType : expected) {
+            if (actual == fieldType) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException(format("Expected field %s to be one of %s but is %s", field, Arrays.toString(expected), getType(field)));
+    }
+}
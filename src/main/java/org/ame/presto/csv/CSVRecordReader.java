@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.airlift.log.Logger;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import io.airlift.slice.Slice;
+import org.ame.presto.csv.session.ISession;
+import org.ame.presto.csv.session.SFTPParallelInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+public class CSVRecordReader
+        implements Closeable
+{
+    private static final Logger logger = Logger.get(CSVRecordReader.class);
+    private final ISession session;
+    private final CSVTokenizer tokenizer;
+    // records starting at or after the limit, in bytes of the input of the tokenizer, belong to the next split
+    private final LongSupplier limit;
+    private final CSVRowFilter filter;
+    // streams that hold buffers of their own, or null
+    private PipelinedInputStream pipelined;
+    private SFTPParallelInputStream parallelRange;
+    // rows the split may still return when the query has a limit
+    private long remainingRows;
+    private long readTimeNanos;
+    private boolean closed;
+
+    public CSVRecordReader(CSVClient csvClient, CSVSplit split, List<CSVColumnHandle> columnHandles, CSVRowFilter filter)
+    {
+        long start = System.nanoTime();
+        this.filter = requireNonNull(filter, "filter is null");
+        this.remainingRows = split.getLimit().orElse(Long.MAX_VALUE);
+        this.session = csvClient.getSplitSession();
+        String path = split.getPath();
+        long end = split.getStart() + split.getLength();
+        try {
+            InputStream input;
+            LongSupplier limit;
+            CSVCompression compression = split.getCompression();
+            if (compression == CSVCompression.NONE) {
+                // start one byte early to see whether a record starts right at the beginning of the split
+                long offset = split.getStart() == 0 || split.isStartsAtRecord() ? split.getStart() : split.getStart() - 1;
+                input = openRange(path, offset, end);
+                limit = () -> end - offset;
+                if (split.getStart() == 0) {
+                    // small files are read in one split, and are recognized as compressed only here
+                    BufferedInputStream buffered = new BufferedInputStream(input);
+                    compression = CSVCompression.fromHeader(buffered);
+                    input = buffered;
+                    if (compression != CSVCompression.NONE) {
+                        input = readAhead(compression.decompress(input), csvClient);
+                        limit = () -> Long.MAX_VALUE;
+                    }
+                }
+            }
+            else if (compression == CSVCompression.BGZF) {
+                BGZFInputStream blocks = new BGZFInputStream(session.getInputStream(path, split.getStart()), split.getStart(), end);
+                input = readAhead(blocks, csvClient);
+                // the record starting right after the last block of the range belongs to this split,
+                // as the next split skips the record its first block starts with
+                limit = () -> {
+                    long rangeLength = blocks.getRangeLength();
+                    return rangeLength < 0 ? Long.MAX_VALUE : rangeLength + 1;
+                };
+            }
+            else {
+                input = readAhead(compression.decompress(session.getInputStream(path)), csvClient);
+                limit = () -> Long.MAX_VALUE;
+            }
+            this.limit = limit;
+            this.tokenizer = new CSVTokenizer(input, csvClient.getDelimiter());
+            tokenizer.setMaxFields(Math.max(getMaxFields(columnHandles), filter.getMaxFields()));
+            if (split.getStart() == 0) {
+                // skip the header
+                tokenizer.advance();
+            }
+            else if (!split.isStartsAtRecord()) {
+                tokenizer.skipToNextRecord();
+            }
+        }
+        catch (Exception e) {
+            session.close();
+            throw new RuntimeException("Error while reading csv file: " + path, e);
+        }
+        readTimeNanos = System.nanoTime() - start;
+    }
+
+    public boolean advance()
+    {
+        long start = System.nanoTime();
+        try {
+            // records that do not match the constraint are skipped before any of their values is decoded
+            while (!closed) {
+                // the stream and the session are released as soon as no more rows are needed
+                if (remainingRows == 0 || tokenizer.getConsumedBytes() >= limit.getAsLong() || !tokenizer.advance()) {
+                    close();
+                    return false;
+                }
+                if (filter.matches(tokenizer)) {
+                    remainingRows--;
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            readTimeNanos += System.nanoTime() - start;
+        }
+    }
+
+    // skips up to maxRows rows without splitting them into fields, for scans that read no column from the file
+    public long skipRows(long maxRows)
+    {
+        checkState(filter.isAll(), "rows cannot be skipped with a constraint on the file");
+        if (closed) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        try {
+            long requested = Math.min(maxRows, remainingRows);
+            long rows = tokenizer.skipRecords(requested, limit);
+            remainingRows -= rows;
+            if (rows < requested || remainingRows == 0) {
+                close();
+            }
+            return rows;
+        }
+        catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            readTimeNanos += System.nanoTime() - start;
+        }
+    }
+
+    public int getFieldCount()
+    {
+        return tokenizer.getFieldCount();
+    }
+
+    public Slice getSlice(int field)
+    {
+        return tokenizer.getSlice(field);
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    public long getCompletedBytes()
+    {
+        return tokenizer.getBytesRead();
+    }
+
+    public long getReadTimeNanos()
+    {
+        return readTimeNanos;
+    }
+
+    public long getRetainedSizeInBytes()
+    {
+        long retainedSize = tokenizer.getRetainedSizeInBytes();
+        if (pipelined != null) {
+            retainedSize += pipelined.getRetainedSizeInBytes();
+        }
+        if (parallelRange != null) {
+            retainedSize += parallelRange.getRetainedSizeInBytes();
+        }
+        return retainedSize;
+    }
+
+    // decompresses in another thread while one is free, or else in the thread that parses
+    private InputStream readAhead(InputStream input, CSVClient csvClient)
+    {
+        try {
+            pipelined = new PipelinedInputStream(input, csvClient.getDecompressionExecutor());
+            return pipelined;
+        }
+        catch (RejectedExecutionException e) {
+            return input;
+        }
+    }
+
+    // fields after the last column that is read from the file are skipped
+    private static int getMaxFields(List<CSVColumnHandle> columnHandles)
+    {
+        int maxFields = 0;
+        for (CSVColumnHandle columnHandle : columnHandles) {
+            if (!columnHandle.isPartitionKey()) {
+                maxFields = Math.max(maxFields, columnHandle.getOrdinalPosition() + 1);
+            }
+        }
+        return maxFields;
+    }
+
+    // reads the range of the split, and then past its end only as far as the last record requires
+    private InputStream openRange(String path, long offset, long end)
+            throws Exception
+    {
+        InputStream range = session.getInputStream(path, offset, end - offset);
+        if (range instanceof SFTPParallelInputStream) {
+            parallelRange = (SFTPParallelInputStream) range;
+        }
+        Iterator<InputStream> streams = ImmutableList.<Supplier<InputStream>>of(
+                () -> range,
+                () -> {
+                    try {
+                        return session.getInputStream(path, end);
+                    }
+                    catch (Exception e) {
+                        throw new RuntimeException("Error while reading csv file: " + path, e);
+                    }
+                })
+                .stream()
+                .map(Supplier::get)
+                .iterator();
+        return new SequenceInputStream(Iterators.asEnumeration(streams));
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            tokenizer.close();
+        }
+        catch (IOException e) {
+            logger.warn(e, "Error while closing csv reader");
+        }
+        finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.RecordSet;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Objects.requireNonNull;
+
+public class CSVRecordSet
+        implements RecordSet
+{
+    private final CSVClient csvClient;
+    private final CSVSplit split;
+    private final List<CSVColumnHandle> columnHandles;
+    private final List<Type> columnTypes;
+    private final CSVFieldDecoder decoder;
+    private final CSVRowFilter filter;
+
+    public CSVRecordSet(CSVClient csvClient, CSVSplit split, List<CSVColumnHandle> columnHandles, CSVFieldDecoder decoder, CSVRowFilter filter)
+    {
+        this.csvClient = requireNonNull(csvClient, "csvClient is null");
+        this.split = requireNonNull(split, "split is null");
+        this.columnHandles = ImmutableList.copyOf(requireNonNull(columnHandles, "columnHandles is null"));
+        this.columnTypes = columnHandles.stream()
+                .map(CSVColumnHandle::getColumnType)
+                .collect(toImmutableList());
+        this.decoder = requireNonNull(decoder, "decoder is null");
+        this.filter = requireNonNull(filter, "filter is null");
+    }
+
+    @Override
+    public List<Type> getColumnTypes()
+    {
+        return columnTypes;
+    }
+
+    @Override
+    public RecordCursor cursor()
+    {
+        return new CSVRecordCursor(csvClient, split, columnHandles, decoder, filter);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.common.Page;
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.inject.Inject;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+// Counts the rows of splits that read no column, as for count(*), without splitting the rows into fields.
+// The count is kept for the version of the file, so that counting an unchanged file again reads nothing.
+public class CSVRowCountCache
+{
+    private static final int MAX_ROWS_PER_PAGE = 1024 * 1024;
+    private final Cache<CacheKey, Long> rowCounts;
+
+    @Inject
+    public CSVRowCountCache(CSVConfig config)
+    {
+        this.rowCounts = CacheBuilder.newBuilder()
+                .maximumSize(requireNonNull(config, "config is null").getRowCountCacheMaximumSize())
+                .build();
+    }
+
+    public ConnectorPageSource getPageSource(CSVSplit split, Supplier<CSVRecordReader> readerFactory)
+    {
+        CacheKey key = new CacheKey(split);
+        Long rowCount = rowCounts.getIfPresent(key);
+        if (rowCount != null) {
+            return new CountingPageSource(key, null, Math.min(rowCount, split.getLimit().orElse(Long.MAX_VALUE)));
+        }
+        // a split with a limit is not counted to its end
+        return new CountingPageSource(split.getLimit().isPresent() ? null : key, readerFactory.get(), 0);
+    }
+
+    private static final class CacheKey
+    {
+        private final String path;
+        private final long fileSize;
+        private final long fileModificationTime;
+        private final long start;
+        private final long length;
+
+        private CacheKey(CSVSplit split)
+        {
+            this.path = split.getPath();
+            this.fileSize = split.getFileSize();
+            this.fileModificationTime = split.getFileModificationTime();
+            this.start = split.getStart();
+            this.length = split.getLength();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(path, fileSize, fileModificationTime, start, length);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey that = (CacheKey) o;
+            return Objects.equals(this.path, that.path)
+                    && this.fileSize == that.fileSize
+                    && this.fileModificationTime == that.fileModificationTime
+                    && this.start == that.start
+                    && this.length == that.length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return toStringHelper(this)
+                    .add("path", path)
+                    .add("start", start)
+                    .add("length", length)
+                    .toString();
+        }
+    }
+
+    // returns pages without columns, either counted from the reader or from a known row count
+    private class CountingPageSource
+            implements ConnectorPageSource
+    {
+        private final CacheKey key;
+        private final CSVRecordReader reader;
+        private long remainingRows;
+        private long completedPositions;
+        private boolean finished;
+
+        private CountingPageSource(CacheKey key, CSVRecordReader reader, long remainingRows)
+        {
+            this.key = key;
+            this.reader = reader;
+            this.remainingRows = remainingRows;
+        }
+
+        @Override
+        public long getCompletedBytes()
+        {
+            return reader == null ? 0 : reader.getCompletedBytes();
+        }
+
+        @Override
+        public long getCompletedPositions()
+        {
+            return completedPositions;
+        }
+
+        @Override
+        public long getReadTimeNanos()
+        {
+            return reader == null ? 0 : reader.getReadTimeNanos();
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return finished;
+        }
+
+        @Override
+        public Page getNextPage()
+        {
+            if (finished) {
+                return null;
+            }
+            long rows;
+            if (reader == null) {
+                rows = Math.min(remainingRows, MAX_ROWS_PER_PAGE);
+                remainingRows -= rows;
+                finished = remainingRows == 0;
+            }
+            else {
+                rows = reader.skipRows(MAX_ROWS_PER_PAGE);
+                if (reader.isClosed()) {
+                    finished = true;
+                    if (key != null) {
+                        rowCounts.put(key, completedPositions + rows);
+                    }
+                }
+            }
+            completedPositions += rows;
+            return rows == 0 ? null : new Page((int) rows);
+        }
+
+        @Override
+        public long getSystemMemoryUsage()
+        {
+            return reader == null ? 0 : reader.getRetainedSizeInBytes();
+        }
+
+        @Override
+        public void close()
+        {
+            finished = true;
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+}
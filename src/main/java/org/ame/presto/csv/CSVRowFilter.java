@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.common.predicate.ValueSet;
+import com.facebook.presto.spi.ColumnHandle;
+import com.google.common.collect.ImmutableSet;
+import org.ame.presto.csv.CSVFieldDecoder.FieldType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+// Checks the constraint of the query against the fields of a record before any column is decoded.
+// Only the filtered fields are looked at, varchar values are compared as raw bytes, and other values
+// are parsed the same way as when they are decoded, so that rows are never dropped that Presto keeps.
+public class CSVRowFilter
+{
+    private final CSVFieldDecoder decoder;
+    private final int[] ordinalPositions;
+    private final FieldType[] fieldTypes;
+    private final Domain[] domains;
+    // values of the domains that are sets of single values, or null
+    private final Set<?>[] discreteValues;
+    private final boolean none;
+
+    private CSVRowFilter(CSVFieldDecoder decoder, List<CSVColumnHandle> columns, List<Domain> domains, boolean none)
+    {
+        this.decoder = requireNonNull(decoder, "decoder is null");
+        this.ordinalPositions = new int[columns.size()];
+        this.fieldTypes = new FieldType[columns.size()];
+        this.domains = domains.toArray(new Domain[0]);
+        this.discreteValues = new Set<?>[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            ordinalPositions[i] = columns.get(i).getOrdinalPosition();
+            fieldTypes[i] = FieldType.of(columns.get(i).getColumnType());
+            ValueSet values = this.domains[i].getValues();
+            // doubles are left to the domain, which compares them the way SQL does
+            if (values.isNone()) {
+                discreteValues[i] = ImmutableSet.of();
+            }
+            else if (fieldTypes[i] != FieldType.DOUBLE && !values.isAll() && values.isDiscreteSet()) {
+                discreteValues[i] = ImmutableSet.copyOf(values.getDiscreteSet());
+            }
+        }
+        this.none = none;
+    }
+
+    public static CSVRowFilter create(TupleDomain<ColumnHandle> constraint, CSVFieldDecoder decoder)
+    {
+        List<CSVColumnHandle> columns = new ArrayList<>();
+        List<Domain> domains = new ArrayList<>();
+        if (constraint.getDomains().isPresent()) {
+            for (Map.Entry<ColumnHandle, Domain> entry : constraint.getDomains().get().entrySet()) {
+                CSVColumnHandle column = (CSVColumnHandle) entry.getKey();
+                // partition keys are filtered when the splits are listed
+                if (!column.isPartitionKey() && !entry.getValue().isAll()) {
+                    columns.add(column);
+                    domains.add(entry.getValue());
+                }
+            }
+        }
+        return new CSVRowFilter(decoder, columns, domains, constraint.isNone());
+    }
+
+    // whether every row matches
+    public boolean isAll()
+    {
+        return !none && ordinalPositions.length == 0;
+    }
+
+    public int getMaxFields()
+    {
+        int maxFields = 0;
+        for (int ordinalPosition : ordinalPositions) {
+            maxFields = Math.max(maxFields, ordinalPosition + 1);
+        }
+        return maxFields;
+    }
+
+    public boolean matches(CSVTokenizer tokenizer)
+    {
+        if (none) {
+            return false;
+        }
+        for (int i = 0; i < ordinalPositions.length; i++) {
+            Object value = null;
+            if (ordinalPositions[i] < tokenizer.getFieldCount()) {
+                value = decoder.decode(fieldTypes[i], tokenizer.getSlice(ordinalPositions[i]));
+            }
+            if (!matches(i, value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(int column, Object value)
+    {
+        if (value == null) {
+            return domains[column].isNullAllowed();
+        }
+        if (discreteValues[column] != null) {
+            return discreteValues[column].contains(value);
+        }
+        return domains[column].includesNullableValue(value);
+    }
+}
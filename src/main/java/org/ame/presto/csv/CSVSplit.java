@@ -23,8 +23,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
 
+import static com.facebook.presto.spi.schedule.NodeSelectionStrategy.NO_PREFERENCE;
 import static com.facebook.presto.spi.schedule.NodeSelectionStrategy.SOFT_AFFINITY;
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 public class CSVSplit
@@ -32,16 +36,47 @@ public class CSVSplit
 {
     private final String schemaName;
     private final String tableName;
-    private final List<HostAddress> addresses;
+    private final String path;
+    private final long start;
+    private final long length;
+    private final long fileSize;
+    private final long fileModificationTime;
+    private final CSVCompression compression;
+    private final boolean startsAtRecord;
+    private final Map<String, String> partitionValues;
+    private final int affinityReplicas;
+    private final OptionalLong limit;
 
     @JsonCreator
     public CSVSplit(
             @JsonProperty("schemaName") String schemaName,
-            @JsonProperty("tableName") String tableName)
+            @JsonProperty("tableName") String tableName,
+            @JsonProperty("path") String path,
+            @JsonProperty("start") long start,
+            @JsonProperty("length") long length,
+            @JsonProperty("fileSize") long fileSize,
+            @JsonProperty("fileModificationTime") long fileModificationTime,
+            @JsonProperty("compression") CSVCompression compression,
+            @JsonProperty("startsAtRecord") boolean startsAtRecord,
+            @JsonProperty("partitionValues") Map<String, String> partitionValues,
+            @JsonProperty("affinityReplicas") int affinityReplicas,
+            @JsonProperty("limit") OptionalLong limit)
     {
+        checkArgument(start >= 0, "start is negative");
+        checkArgument(length >= 0, "length is negative");
+        checkArgument(affinityReplicas >= 0, "affinityReplicas is negative");
         this.schemaName = requireNonNull(schemaName, "schemaName is null");
         this.tableName = requireNonNull(tableName, "tableName is null");
-        this.addresses = ImmutableList.of();
+        this.path = requireNonNull(path, "path is null");
+        this.start = start;
+        this.length = length;
+        this.fileSize = fileSize;
+        this.fileModificationTime = fileModificationTime;
+        this.compression = requireNonNull(compression, "compression is null");
+        this.startsAtRecord = startsAtRecord;
+        this.partitionValues = ImmutableMap.copyOf(requireNonNull(partitionValues, "partitionValues is null"));
+        this.affinityReplicas = affinityReplicas;
+        this.limit = requireNonNull(limit, "limit is null");
     }
 
     @JsonProperty
@@ -56,16 +91,83 @@ public class CSVSplit
         return tableName;
     }
 
+    @JsonProperty
+    public String getPath()
+    {
+        return path;
+    }
+
+    @JsonProperty
+    public long getStart()
+    {
+        return start;
+    }
+
+    @JsonProperty
+    public long getLength()
+    {
+        return length;
+    }
+
+    // size and modification time of the file when the split was created, identify the version of the file
+    @JsonProperty
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    @JsonProperty
+    public long getFileModificationTime()
+    {
+        return fileModificationTime;
+    }
+
+    @JsonProperty
+    public CSVCompression getCompression()
+    {
+        return compression;
+    }
+
+    // the split starts at the first byte of a record, as known from the block index of the file
+    @JsonProperty
+    public boolean isStartsAtRecord()
+    {
+        return startsAtRecord;
+    }
+
+    @JsonProperty
+    public Map<String, String> getPartitionValues()
+    {
+        return partitionValues;
+    }
+
+    @JsonProperty
+    public int getAffinityReplicas()
+    {
+        return affinityReplicas;
+    }
+
+    // the split stops after this many rows
+    @JsonProperty
+    public OptionalLong getLimit()
+    {
+        return limit;
+    }
+
     @Override
     public NodeSelectionStrategy getNodeSelectionStrategy()
     {
-        return SOFT_AFFINITY;
+        return affinityReplicas > 0 ? SOFT_AFFINITY : NO_PREFERENCE;
     }
 
     @Override
     public List<HostAddress> getPreferredNodes(NodeProvider nodeProvider)
     {
-        return addresses;
+        if (affinityReplicas == 0) {
+            return ImmutableList.of();
+        }
+        // the same range of the same file goes to the same workers, so that their caches can be reused
+        return nodeProvider.get(path + "#" + start, affinityReplicas);
     }
 
     @Override
@@ -74,7 +176,16 @@ public class CSVSplit
         return ImmutableMap.builder()
                 .put("schemaName", schemaName)
                 .put("tableName", tableName)
-                .put("addresses", addresses)
+                .put("path", path)
+                .put("start", start)
+                .put("length", length)
+                .put("fileSize", fileSize)
+                .put("fileModificationTime", fileModificationTime)
+                .put("compression", compression)
+                .put("startsAtRecord", startsAtRecord)
+                .put("partitionValues", partitionValues)
+                .put("affinityReplicas", affinityReplicas)
+                .put("limit", limit)
                 .build();
     }
 }
@@ -17,26 +17,57 @@ import com.facebook.presto.spi.ConnectorSession;
 import com.facebook.presto.spi.ConnectorSplit;
 import com.facebook.presto.spi.ConnectorSplitSource;
 import com.facebook.presto.spi.ConnectorTableLayoutHandle;
-import com.facebook.presto.spi.FixedSplitSource;
 import com.facebook.presto.spi.TableNotFoundException;
 import com.facebook.presto.spi.connector.ConnectorSplitManager;
 import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import org.ame.presto.csv.CSVBlockIndex.Block;
+import org.ame.presto.csv.session.FileEntry;
+import org.ame.presto.csv.session.ISession;
+
+import javax.annotation.PreDestroy;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
 
 public class CSVSplitManager
         implements ConnectorSplitManager
 {
     private final CSVClient client;
+    private final CSVBlockIndexManager indexManager;
+    private final long maxSplitSize;
+    private final int maxOutstandingSplits;
+    private final int affinityReplicas;
+    private final boolean blockIndexEnabled;
+    private final boolean rangeSplitsEnabled;
+    private final ExecutorService executor = newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("csv-split-loader-%s")
+            .setDaemon(true)
+            .build());
 
     @Inject
-    public CSVSplitManager(CSVClient client)
+    public CSVSplitManager(CSVClient client, CSVBlockIndexManager indexManager, CSVConfig config)
     {
         this.client = client;
+        this.indexManager = indexManager;
+        this.maxSplitSize = config.getMaxSplitSize().toBytes();
+        this.maxOutstandingSplits = config.getMaxOutstandingSplits();
+        this.affinityReplicas = config.getSplitAffinityReplicas();
+        this.blockIndexEnabled = config.isBlockIndexEnabled();
+        this.rangeSplitsEnabled = config.isRangeSplitsEnabled();
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        executor.shutdownNow();
     }
 
     @Override
@@ -46,7 +77,8 @@ public class CSVSplitManager
             ConnectorTableLayoutHandle layout,
             SplitSchedulingContext splitSchedulingContext)
     {
-        CSVTableHandle tableHandle = ((CSVTableLayoutHandle) layout).getTableHandle();
+        CSVTableLayoutHandle layoutHandle = (CSVTableLayoutHandle) layout;
+        CSVTableHandle tableHandle = layoutHandle.getTableHandle();
         Optional<CSVTable> table = client.getTable(tableHandle.getSchemaName(), tableHandle.getTableName());
 
         // this can happen if table is removed during a query
@@ -54,11 +86,108 @@ public class CSVSplitManager
             throw new TableNotFoundException(tableHandle.getSchemaTableName());
         }
 
-        List<ConnectorSplit> splits = new ArrayList<>();
-        splits.add(new CSVSplit(
+        // every file of a table is read separately, and large files are read in byte ranges,
+        // each reader finishes the record that crosses its end
+        CSVFieldDecoder decoder = CSVFieldDecoder.create(session);
+        return new CSVSplitSource(consumer -> {
+            // a single session is held at a time, as loaders waiting for a second one could exhaust the pool
+            ISession csvSession = client.getSession();
+            try {
+                client.listPartitions(csvSession, tableHandle.getSchemaName(), tableHandle.getTableName(), layoutHandle.getTupleDomain(), partition -> {
+                    // the files of a partition are listed first, as a session cannot read while it lists a directory
+                    List<FileEntry> files = new ArrayList<>();
+                    client.listFiles(csvSession, partition, files::add);
+                    for (FileEntry file : files) {
+                        CSVCompression compression = getCompression(csvSession, file);
+                        Optional<CSVBlockIndex> index = Optional.empty();
+                        if (blockIndexEnabled && compression == CSVCompression.NONE && file.getSize() > 0) {
+                            index = indexManager.getIndex(csvSession, file);
+                        }
+                        if (index.isPresent()) {
+                            Predicate<Block> blockFilter = indexManager.getBlockFilter(index.get(), layoutHandle.getTupleDomain(), decoder);
+                            addIndexedSplits(layoutHandle, partition, file, index.get(), blockFilter, consumer);
+                            continue;
+                        }
+                        // compressed files other than BGZF can only be read from the beginning, and without range splits
+                        // every file is read by one split, unlike indexed files whose blocks are known to start at records
+                        long splitSize = compression.isSplittable() && rangeSplitsEnabled ? maxSplitSize : file.getSize();
+                        for (long start = 0; start < file.getSize(); start += splitSize) {
+                            consumer.accept(createSplit(layoutHandle, partition, file, start, Math.min(splitSize, file.getSize() - start), compression, false));
+                        }
+                    }
+                });
+            }
+            finally {
+                csvSession.close();
+            }
+        }, executor, maxOutstandingSplits);
+    }
+
+    // splits of an indexed file are cut between its blocks, and leave out the blocks that cannot match the constraint
+    private void addIndexedSplits(
+            CSVTableLayoutHandle layoutHandle,
+            CSVPartition partition,
+            FileEntry file,
+            CSVBlockIndex index,
+            Predicate<Block> blockFilter,
+            Consumer<ConnectorSplit> consumer)
+    {
+        long start = -1;
+        long end = -1;
+        for (Block block : index.getBlocks()) {
+            boolean matches = blockFilter.test(block);
+            if (start >= 0 && (!matches || block.getOffset() != end || block.getOffset() + block.getLength() - start > maxSplitSize)) {
+                consumer.accept(createSplit(layoutHandle, partition, file, start, end - start, CSVCompression.NONE, true));
+                start = -1;
+            }
+            if (matches) {
+                if (start < 0) {
+                    start = block.getOffset();
+                }
+                end = block.getOffset() + block.getLength();
+            }
+        }
+        if (start >= 0) {
+            consumer.accept(createSplit(layoutHandle, partition, file, start, end - start, CSVCompression.NONE, true));
+        }
+    }
+
+    private CSVSplit createSplit(
+            CSVTableLayoutHandle layoutHandle,
+            CSVPartition partition,
+            FileEntry file,
+            long start,
+            long length,
+            CSVCompression compression,
+            boolean startsAtRecord)
+    {
+        CSVTableHandle tableHandle = layoutHandle.getTableHandle();
+        return new CSVSplit(
                 tableHandle.getSchemaName(),
-                tableHandle.getTableName()));
-        Collections.shuffle(splits);
-        return new FixedSplitSource(splits);
+                tableHandle.getTableName(),
+                file.getPath(),
+                start,
+                length,
+                file.getSize(),
+                file.getModificationTime(),
+                compression,
+                startsAtRecord,
+                partition.getValues(),
+                affinityReplicas,
+                layoutHandle.getLimit());
+    }
+
+    private CSVCompression getCompression(ISession session, FileEntry file)
+    {
+        CSVCompression compression = CSVCompression.fromFileName(file.getName());
+        if (file.getSize() <= maxSplitSize || (compression != CSVCompression.NONE && compression != CSVCompression.GZIP)) {
+            return compression;
+        }
+        // only the first bytes tell whether a large file can be read in ranges
+        CSVCompression detected = client.getCompression(session, file);
+        if (compression == CSVCompression.NONE || detected == CSVCompression.BGZF) {
+            return detected;
+        }
+        return compression;
     }
 }
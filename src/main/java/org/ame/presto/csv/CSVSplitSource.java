@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.spi.ConnectorSplit;
+import com.facebook.presto.spi.ConnectorSplitSource;
+import com.facebook.presto.spi.connector.ConnectorPartitionHandle;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+// Hands out splits while a background task is still listing the files of the table.
+// The loader blocks once maxOutstandingSplits splits are waiting to be scheduled,
+// so the memory used does not depend on the number of files.
+public class CSVSplitSource
+        implements ConnectorSplitSource
+{
+    private final int maxOutstandingSplits;
+    private final Deque<ConnectorSplit> splits = new ArrayDeque<>();
+    private final Future<?> loader;
+    private CompletableFuture<?> splitsAvailable = new CompletableFuture<>();
+    private boolean noMoreSplits;
+    private boolean closed;
+    private Throwable failure;
+
+    public CSVSplitSource(SplitLoader splitLoader, ExecutorService executor, int maxOutstandingSplits)
+    {
+        requireNonNull(splitLoader, "splitLoader is null");
+        checkArgument(maxOutstandingSplits > 0, "maxOutstandingSplits must be positive");
+        this.maxOutstandingSplits = maxOutstandingSplits;
+        this.loader = executor.submit(() -> {
+            try {
+                splitLoader.load(this::addSplit);
+                finish(null);
+            }
+            catch (Throwable t) {
+                finish(t);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<ConnectorSplitBatch> getNextBatch(ConnectorPartitionHandle partitionHandle, int maxSize)
+    {
+        CompletableFuture<?> future;
+        synchronized (this) {
+            if (failure != null) {
+                CompletableFuture<ConnectorSplitBatch> failed = new CompletableFuture<>();
+                failed.completeExceptionally(failure);
+                return failed;
+            }
+            if (!splits.isEmpty() || noMoreSplits) {
+                ImmutableList.Builder<ConnectorSplit> batch = ImmutableList.builder();
+                for (int i = 0; i < maxSize && !splits.isEmpty(); i++) {
+                    batch.add(splits.poll());
+                }
+                // wake up the loader waiting for space
+                notifyAll();
+                return CompletableFuture.completedFuture(new ConnectorSplitBatch(batch.build(), noMoreSplits && splits.isEmpty()));
+            }
+            future = splitsAvailable;
+        }
+        return future.thenCompose(ignored -> getNextBatch(partitionHandle, maxSize));
+    }
+
+    @Override
+    public synchronized boolean isFinished()
+    {
+        return failure == null && noMoreSplits && splits.isEmpty();
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (this) {
+            closed = true;
+            splits.clear();
+            notifyAll();
+        }
+        loader.cancel(true);
+    }
+
+    private void addSplit(ConnectorSplit split)
+    {
+        CompletableFuture<?> future = null;
+        synchronized (this) {
+            while (splits.size() >= maxOutstandingSplits && !closed) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while listing splits", e);
+                }
+            }
+            if (closed) {
+                throw new IllegalStateException("Split source is closed");
+            }
+            splits.add(split);
+            if (splits.size() == 1) {
+                // a batch request may be waiting for the first split
+                future = splitsAvailable;
+                splitsAvailable = new CompletableFuture<>();
+            }
+        }
+        // complete outside of the lock, the waiting batch request runs on this thread
+        if (future != null) {
+            future.complete(null);
+        }
+    }
+
+    private void finish(Throwable throwable)
+    {
+        CompletableFuture<?> future;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            failure = throwable;
+            noMoreSplits = true;
+            future = splitsAvailable;
+        }
+        future.complete(null);
+    }
+
+    public interface SplitLoader
+    {
+        void load(Consumer<ConnectorSplit> consumer)
+                throws Exception;
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.airlift.log.Logger;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.statistics.ColumnStatistics;
+import com.facebook.presto.spi.statistics.DoubleRange;
+import com.facebook.presto.spi.statistics.Estimate;
+import com.facebook.presto.spi.statistics.TableStatistics;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.slice.Slice;
+import org.ame.presto.csv.CSVFieldDecoder.FieldType;
+import org.ame.presto.csv.session.FileEntry;
+import org.ame.presto.csv.session.ISession;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import java.io.BufferedInputStream;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.LongSupplier;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.hash.Hashing.murmur3_128;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.ame.presto.csv.CSVFieldDecoder.getValueBytes;
+
+// Estimates the statistics of a table from a prefix of some of its files: the row count from the bytes per
+// row of the sample, and the null fraction, data size and number of distinct values of every column from
+// the values of the sample. The statistics of a file are kept for its version, and can be replaced by the
+// exact statistics of the whole file, computed in the background. The statistics of a table are kept for
+// the version of its file or directory during csv.metadata-cache-ttl.
+public class CSVStatisticsProvider
+{
+    // larger tables are estimated from this many of their files, spread over the list of files
+    private static final int MAX_SAMPLED_FILES = 16;
+    // a sample with mostly unique values is assumed to have as many distinct values in the rest of the file
+    private static final double UNIQUE_RATIO = 0.9;
+    private static final HashFunction HASH = murmur3_128();
+    private static final Logger logger = Logger.get(CSVStatisticsProvider.class);
+
+    private final CSVClient client;
+    private final boolean enabled;
+    private final long sampleSize;
+    private final boolean exactEnabled;
+    private final Cache<FileEntry, FileStatistics> cache;
+    // the planner asks for the statistics of a table several times per query
+    private final Cache<TableStatisticsKey, TableStatistics> tableCache;
+    private final Set<FileEntry> scanning = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("csv-statistics-%s")
+            .setDaemon(true)
+            .build());
+
+    @Inject
+    public CSVStatisticsProvider(CSVClient client, CSVConfig config)
+    {
+        this.client = requireNonNull(client, "client is null");
+        requireNonNull(config, "config is null");
+        this.enabled = config.isStatisticsEnabled();
+        this.sampleSize = config.getStatisticsSampleSize().toBytes();
+        this.exactEnabled = config.isStatisticsExactEnabled();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(config.getStatisticsCacheMaximumSize())
+                .build();
+        this.tableCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.getMetadataCacheTtl().toMillis(), MILLISECONDS)
+                .maximumSize(config.getMetadataCacheMaximumSize())
+                .build();
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+
+    public TableStatistics getTableStatistics(CSVTableHandle tableHandle, TupleDomain<ColumnHandle> constraint, List<CSVColumnHandle> columns)
+    {
+        if (!enabled || constraint.isNone()) {
+            return TableStatistics.empty();
+        }
+        try {
+            // statistics are kept for a version of the table file or directory, as long as its metadata
+            Optional<FileEntry> table = client.getTableEntry(tableHandle.getSchemaName(), tableHandle.getTableName());
+            if (!table.isPresent()) {
+                return TableStatistics.empty();
+            }
+            TableStatisticsKey key = new TableStatisticsKey(table.get(), constraint, columns);
+            TableStatistics statistics = tableCache.getIfPresent(key);
+            if (statistics == null) {
+                statistics = computeTableStatistics(tableHandle, constraint, columns);
+                tableCache.put(key, statistics);
+            }
+            return statistics;
+        }
+        catch (RuntimeException e) {
+            // the query is planned without statistics
+            logger.warn(e, "Error while computing statistics of csv table %s", tableHandle.getSchemaTableName());
+            return TableStatistics.empty();
+        }
+    }
+
+    private TableStatistics computeTableStatistics(CSVTableHandle tableHandle, TupleDomain<ColumnHandle> constraint, List<CSVColumnHandle> columns)
+    {
+        Optional<CSVTable> table = client.getTable(tableHandle.getSchemaName(), tableHandle.getTableName());
+        if (!table.isPresent()) {
+            return TableStatistics.empty();
+        }
+        List<FieldType> fieldTypes = table.get().getColumns().stream()
+                .filter(column -> !column.isPartitionKey())
+                .map(column -> FieldType.of(column.getType()))
+                .collect(toImmutableList());
+
+        List<FileEntry> files = new ArrayList<>();
+        List<Map<String, String>> partitionValues = new ArrayList<>();
+        List<FileStatistics> samples = new ArrayList<>();
+        long totalSize = 0;
+        long sampledSize = 0;
+        ISession session = client.getSession();
+        try {
+            // the files are listed first, as the session cannot read while it lists a directory
+            client.listPartitions(session, tableHandle.getSchemaName(), tableHandle.getTableName(), constraint, partition ->
+                    client.listFiles(session, partition, file -> {
+                        files.add(file);
+                        partitionValues.add(partition.getValues());
+                    }));
+            int step = Math.max(1, (files.size() + MAX_SAMPLED_FILES - 1) / MAX_SAMPLED_FILES);
+            for (int i = 0; i < files.size(); i++) {
+                totalSize += files.get(i).getSize();
+                if (i % step == 0) {
+                    samples.add(getFileStatistics(session, files.get(i), fieldTypes));
+                    sampledSize += files.get(i).getSize();
+                }
+            }
+        }
+        finally {
+            session.close();
+        }
+
+        // a file that was not read to the end without a single row tells nothing about its size
+        if (samples.stream().anyMatch(sample -> !sample.isExact() && sample.getRows() == 0)) {
+            return TableStatistics.empty();
+        }
+        boolean exact = samples.size() == files.size() && samples.stream().allMatch(FileStatistics::isExact);
+        double rowCount = 0;
+        long sampledRows = 0;
+        for (FileStatistics sample : samples) {
+            rowCount += sample.getEstimatedRowCount();
+            sampledRows += sample.getRows();
+        }
+        if (sampledSize > 0) {
+            rowCount = rowCount * totalSize / sampledSize;
+        }
+
+        TableStatistics.Builder statistics = TableStatistics.builder().setRowCount(Estimate.of(rowCount));
+        for (CSVColumnHandle column : columns) {
+            if (column.isPartitionKey()) {
+                statistics.setColumnStatistics(column, getPartitionKeyStatistics(column.getColumnName(), files, partitionValues));
+            }
+            else if (column.getOrdinalPosition() < fieldTypes.size() && sampledRows > 0) {
+                statistics.setColumnStatistics(column, getColumnStatistics(column.getOrdinalPosition(), samples, sampledRows, rowCount, exact));
+            }
+        }
+        return statistics.build();
+    }
+
+    private static ColumnStatistics getColumnStatistics(int column, List<FileStatistics> samples, long sampledRows, double rowCount, boolean exact)
+    {
+        long nullCount = 0;
+        long dataSize = 0;
+        double min = Double.NaN;
+        double max = Double.NaN;
+        HyperLogLog distinctValues = new HyperLogLog();
+        for (FileStatistics sample : samples) {
+            nullCount += sample.getNullCounts()[column];
+            dataSize += sample.getDataSizes()[column];
+            distinctValues.merge(sample.getDistinctValues()[column]);
+            min = minIgnoreNaN(min, sample.getMinValues()[column]);
+            max = maxIgnoreNaN(max, sample.getMaxValues()[column]);
+        }
+        double nullsFraction = (double) nullCount / sampledRows;
+        long sampledValues = sampledRows - nullCount;
+        double values = rowCount * (1 - nullsFraction);
+        double distinctValuesCount = distinctValues.cardinality();
+        if (!exact && sampledValues > 0 && distinctValuesCount >= UNIQUE_RATIO * sampledValues) {
+            distinctValuesCount = distinctValuesCount * values / sampledValues;
+        }
+        ColumnStatistics.Builder statistics = ColumnStatistics.builder()
+                .setNullsFraction(Estimate.of(nullsFraction))
+                .setDistinctValuesCount(Estimate.of(Math.min(distinctValuesCount, values)))
+                .setDataSize(Estimate.of(sampledValues == 0 ? 0 : (double) dataSize / sampledValues * values));
+        // the optimizer takes the range as the bounds of every value, which a sample cannot tell
+        if (exact && !Double.isNaN(min) && !Double.isNaN(max)) {
+            statistics.setRange(new DoubleRange(min, max));
+        }
+        return statistics.build();
+    }
+
+    // partition keys are known for every file, their null fraction is weighted by the size of the files
+    private static ColumnStatistics getPartitionKeyStatistics(String name, List<FileEntry> files, List<Map<String, String>> partitionValues)
+    {
+        Set<String> values = new HashSet<>();
+        long nullSize = 0;
+        long totalSize = 0;
+        for (int i = 0; i < files.size(); i++) {
+            String value = partitionValues.get(i).get(name);
+            if (value == null) {
+                nullSize += files.get(i).getSize();
+            }
+            else {
+                values.add(value);
+            }
+            totalSize += files.get(i).getSize();
+        }
+        return ColumnStatistics.builder()
+                .setNullsFraction(Estimate.of(totalSize == 0 ? 0 : (double) nullSize / totalSize))
+                .setDistinctValuesCount(Estimate.of(values.size()))
+                .build();
+    }
+
+    private FileStatistics getFileStatistics(ISession session, FileEntry file, List<FieldType> fieldTypes)
+    {
+        FileStatistics statistics = cache.getIfPresent(file);
+        if (statistics == null || !statistics.getFieldTypes().equals(fieldTypes)) {
+            statistics = computeFileStatistics(session, file, fieldTypes, sampleSize);
+            cache.put(file, statistics);
+        }
+        if (exactEnabled && !statistics.isExact()) {
+            scheduleExactStatistics(file, fieldTypes);
+        }
+        return statistics;
+    }
+
+    private void scheduleExactStatistics(FileEntry file, List<FieldType> fieldTypes)
+    {
+        if (!scanning.add(file)) {
+            return;
+        }
+        executor.execute(() -> {
+            ISession session = client.getSession();
+            try {
+                cache.put(file, computeFileStatistics(session, file, fieldTypes, Long.MAX_VALUE));
+            }
+            catch (RuntimeException e) {
+                logger.warn(e, "Error while scanning csv file %s", file.getPath());
+            }
+            finally {
+                session.close();
+                scanning.remove(file);
+            }
+        });
+    }
+
+    // reads records of the file until maxBytes of the file are read after the header
+    private FileStatistics computeFileStatistics(ISession session, FileEntry file, List<FieldType> fieldTypes, long maxBytes)
+    {
+        // timestamps are only hashed, so their time zone does not matter
+        CSVFieldDecoder decoder = new CSVFieldDecoder(ZoneOffset.UTC);
+        FileStatistics statistics = new FileStatistics(fieldTypes, file.getSize());
+        try {
+            CountingInputStream counting = new CountingInputStream(session.getInputStream(file.getPath()));
+            BufferedInputStream buffered = new BufferedInputStream(counting);
+            CSVCompression compression = CSVCompression.fromHeader(buffered);
+            try (CSVTokenizer tokenizer = new CSVTokenizer(compression.decompress(buffered), client.getDelimiter())) {
+                tokenizer.setMaxFields(fieldTypes.size());
+                // compressed files are measured in the compressed bytes read so far
+                LongSupplier bytesRead = () -> compression == CSVCompression.NONE ? tokenizer.getConsumedBytes() : counting.getCount();
+                // skip the header
+                tokenizer.advance();
+                long headerSize = bytesRead.getAsLong();
+                boolean complete = false;
+                while (bytesRead.getAsLong() - headerSize < maxBytes) {
+                    if (!tokenizer.advance()) {
+                        complete = true;
+                        break;
+                    }
+                    statistics.add(decoder, tokenizer);
+                }
+                statistics.finish(headerSize, bytesRead.getAsLong() - headerSize, complete);
+            }
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Error while reading csv file: " + file.getPath(), e);
+        }
+        return statistics;
+    }
+
+    private static double minIgnoreNaN(double a, double b)
+    {
+        return Double.isNaN(a) ? b : Double.isNaN(b) ? a : Math.min(a, b);
+    }
+
+    private static double maxIgnoreNaN(double a, double b)
+    {
+        return Double.isNaN(a) ? b : Double.isNaN(b) ? a : Math.max(a, b);
+    }
+
+    private static class FileStatistics
+    {
+        private final List<FieldType> fieldTypes;
+        private final long fileSize;
+        private final long[] nullCounts;
+        private final long[] dataSizes;
+        private final HyperLogLog[] distinctValues;
+        // ranges of numeric columns, NaN while unknown
+        private final double[] minValues;
+        private final double[] maxValues;
+        private long rows;
+        private long headerSize;
+        private long sampledSize;
+        private boolean exact;
+
+        public FileStatistics(List<FieldType> fieldTypes, long fileSize)
+        {
+            this.fieldTypes = ImmutableList.copyOf(fieldTypes);
+            this.fileSize = fileSize;
+            this.nullCounts = new long[fieldTypes.size()];
+            this.dataSizes = new long[fieldTypes.size()];
+            this.distinctValues = new HyperLogLog[fieldTypes.size()];
+            this.minValues = new double[fieldTypes.size()];
+            this.maxValues = new double[fieldTypes.size()];
+            for (int i = 0; i < fieldTypes.size(); i++) {
+                distinctValues[i] = new HyperLogLog();
+            }
+            Arrays.fill(minValues, Double.NaN);
+            Arrays.fill(maxValues, Double.NaN);
+        }
+
+        public void add(CSVFieldDecoder decoder, CSVTokenizer tokenizer)
+        {
+            rows++;
+            for (int i = 0; i < fieldTypes.size(); i++) {
+                Object value = null;
+                Slice field = null;
+                if (i < tokenizer.getFieldCount()) {
+                    field = tokenizer.getSlice(i);
+                    value = decoder.decode(fieldTypes.get(i), field);
+                }
+                if (value == null) {
+                    nullCounts[i]++;
+                    continue;
+                }
+                dataSizes[i] += field.length();
+                distinctValues[i].add(HASH.hashBytes(getValueBytes(value)).asLong());
+                FieldType fieldType = fieldTypes.get(i);
+                // the ranges of timestamps would depend on the time zone of the session
+                if (fieldType == FieldType.BIGINT || fieldType == FieldType.DATE || fieldType == FieldType.DOUBLE) {
+                    double number = value instanceof Double ? (double) value : (long) value;
+                    minValues[i] = minIgnoreNaN(minValues[i], number);
+                    maxValues[i] = maxIgnoreNaN(maxValues[i], number);
+                }
+            }
+        }
+
+        public void finish(long headerSize, long sampledSize, boolean exact)
+        {
+            this.headerSize = headerSize;
+            this.sampledSize = sampledSize;
+            this.exact = exact;
+        }
+
+        public List<FieldType> getFieldTypes()
+        {
+            return fieldTypes;
+        }
+
+        public long getRows()
+        {
+            return rows;
+        }
+
+        public double getEstimatedRowCount()
+        {
+            if (exact) {
+                return rows;
+            }
+            return (double) rows * Math.max(0, fileSize - headerSize) / sampledSize;
+        }
+
+        public boolean isExact()
+        {
+            return exact;
+        }
+
+        public long[] getNullCounts()
+        {
+            return nullCounts;
+        }
+
+        public long[] getDataSizes()
+        {
+            return dataSizes;
+        }
+
+        public HyperLogLog[] getDistinctValues()
+        {
+            return distinctValues;
+        }
+
+        public double[] getMinValues()
+        {
+            return minValues;
+        }
+
+        public double[] getMaxValues()
+        {
+            return maxValues;
+        }
+    }
+
+    private static class TableStatisticsKey
+    {
+        private final FileEntry table;
+        private final TupleDomain<ColumnHandle> constraint;
+        private final List<CSVColumnHandle> columns;
+
+        public TableStatisticsKey(FileEntry table, TupleDomain<ColumnHandle> constraint, List<CSVColumnHandle> columns)
+        {
+            this.table = requireNonNull(table, "table is null");
+            this.constraint = requireNonNull(constraint, "constraint is null");
+            this.columns = ImmutableList.copyOf(requireNonNull(columns, "columns is null"));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(table, constraint, columns);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            TableStatisticsKey that = (TableStatisticsKey) o;
+            return Objects.equals(this.table, that.table) &&
+                    Objects.equals(this.constraint, that.constraint) &&
+                    Objects.equals(this.columns, that.columns);
+        }
+    }
+}
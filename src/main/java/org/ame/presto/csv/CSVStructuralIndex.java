@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.util.Arrays;
+
+// one bit per buffer byte, set for delimiters, quotes and line feeds
+public class CSVStructuralIndex
+{
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+    // gathers the high bit of every byte into the top byte of the product
+    private static final long GATHER_HIGH_BITS = 0x0102040810204080L;
+    private static final long QUOTE_PATTERN = broadcast(QUOTE);
+    private static final long LF_PATTERN = broadcast(LF);
+
+    private final byte delimiter;
+    private final long delimiterPattern;
+    private long[] mask = new long[0];
+
+    public CSVStructuralIndex(byte delimiter)
+    {
+        this.delimiter = delimiter;
+        this.delimiterPattern = broadcast(delimiter);
+    }
+
+    public void index(byte[] buffer, int from, int to)
+    {
+        int words = (buffer.length >>> 6) + 1;
+        if (mask.length < words) {
+            mask = Arrays.copyOf(mask, words);
+        }
+        if (from >= to) {
+            return;
+        }
+        // keep the bits before from and clear everything after it
+        mask[from >>> 6] &= (1L << (from & 63)) - 1;
+        Arrays.fill(mask, (from >>> 6) + 1, ((to - 1) >>> 6) + 1, 0);
+
+        int position = from;
+        while (position < to && (position & 7) != 0) {
+            indexByte(buffer[position], position);
+            position++;
+        }
+        Slice slice = Slices.wrappedBuffer(buffer);
+        while (position + Long.BYTES <= to) {
+            long word = slice.getLong(position);
+            long matches = zeroBytes(word ^ delimiterPattern) | zeroBytes(word ^ QUOTE_PATTERN) | zeroBytes(word ^ LF_PATTERN);
+            if (matches != 0) {
+                long bits = ((matches >>> 7) * GATHER_HIGH_BITS) >>> 56;
+                mask[position >>> 6] |= bits << (position & 63);
+            }
+            position += Long.BYTES;
+        }
+        while (position < to) {
+            indexByte(buffer[position], position);
+            position++;
+        }
+    }
+
+    // returns the position of the next structural byte in [position, limit), or limit if there is none
+    public int next(int position, int limit)
+    {
+        if (position >= limit) {
+            return limit;
+        }
+        int word = position >>> 6;
+        long bits = mask[word] & (-1L << (position & 63));
+        while (bits == 0) {
+            word++;
+            if (word << 6 >= limit) {
+                return limit;
+            }
+            bits = mask[word];
+        }
+        return Math.min((word << 6) + Long.numberOfTrailingZeros(bits), limit);
+    }
+
+    public long getRetainedSizeInBytes()
+    {
+        return (long) mask.length * Long.BYTES;
+    }
+
+    private void indexByte(byte b, int position)
+    {
+        if (b == delimiter || b == QUOTE || b == LF) {
+            mask[position >>> 6] |= 1L << (position & 63);
+        }
+    }
+
+    // sets the high bit of every zero byte, without carries between bytes
+    private static long zeroBytes(long word)
+    {
+        return ~(((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | word | LOW_SEVEN_BITS);
+    }
+
+    private static long broadcast(byte b)
+    {
+        return (b & 0xFFL) * 0x0101010101010101L;
+    }
+}
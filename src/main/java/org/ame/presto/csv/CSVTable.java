@@ -26,6 +26,7 @@ import static java.util.Objects.requireNonNull;
 
 public class CSVTable
 {
+    private final List<CSVColumn> columns;
     private final List<ColumnMetadata> columnsMetadata;
 
     @JsonCreator
@@ -34,7 +35,7 @@ public class CSVTable
             @JsonProperty("columns") List<CSVColumn> columns)
     {
         checkArgument(!isNullOrEmpty(name), "name is null or is empty");
-        requireNonNull(columns, "columns is null");
+        this.columns = ImmutableList.copyOf(requireNonNull(columns, "columns is null"));
 
         ImmutableList.Builder<ColumnMetadata> columnsMetadataBuilder = ImmutableList.builder();
         for (CSVColumn column : columns) {
@@ -52,11 +53,7 @@ public class CSVTable
     @JsonProperty
     public List<CSVColumn> getColumns()
     {
-        ImmutableList.Builder<CSVColumn> columnsBuilder = ImmutableList.builder();
-        for (ColumnMetadata columnMetadata : columnsMetadata) {
-            columnsBuilder.add(new CSVColumn(columnMetadata.getName(), columnMetadata.getType()));
-        }
-        return columnsBuilder.build();
+        return columns;
     }
 
     public List<ColumnMetadata> getColumnsMetadata()
@@ -13,33 +13,68 @@
  */
 package org.ame.presto.csv;
 
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ConnectorTableLayoutHandle;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.Objects;
+import java.util.OptionalLong;
+
+import static java.util.Objects.requireNonNull;
 
 public class CSVTableLayoutHandle
         implements ConnectorTableLayoutHandle
 {
     private final CSVTableHandle table;
+    private final TupleDomain<ColumnHandle> tupleDomain;
+    // the maximum number of rows each split needs to return
+    private final OptionalLong limit;
 
     @JsonCreator
-    public CSVTableLayoutHandle(@JsonProperty("table") CSVTableHandle table)
+    public CSVTableLayoutHandle(
+            @JsonProperty("table") CSVTableHandle table,
+            @JsonProperty("tupleDomain") TupleDomain<ColumnHandle> tupleDomain,
+            @JsonProperty("limit") OptionalLong limit)
     {
         this.table = table;
+        this.tupleDomain = requireNonNull(tupleDomain, "tupleDomain is null");
+        this.limit = requireNonNull(limit, "limit is null");
     }
 
-    @JsonProperty
+    public CSVTableLayoutHandle(CSVTableHandle table, TupleDomain<ColumnHandle> tupleDomain)
+    {
+        this(table, tupleDomain, OptionalLong.empty());
+    }
+
+    @JsonProperty("table")
     public CSVTableHandle getTableHandle()
     {
         return table;
     }
 
+    @JsonProperty
+    public TupleDomain<ColumnHandle> getTupleDomain()
+    {
+        return tupleDomain;
+    }
+
+    @JsonProperty
+    public OptionalLong getLimit()
+    {
+        return limit;
+    }
+
+    public CSVTableLayoutHandle withLimit(long limit)
+    {
+        return new CSVTableLayoutHandle(table, tupleDomain, OptionalLong.of(limit));
+    }
+
     @Override
     public int hashCode()
     {
-        return Objects.hash(table);
+        return Objects.hash(table, tupleDomain, limit);
     }
 
     @Override
@@ -53,7 +88,9 @@ public class CSVTableLayoutHandle
         }
 
         CSVTableLayoutHandle that = (CSVTableLayoutHandle) o;
-        return Objects.equals(table, that.table);
+        return Objects.equals(table, that.table) &&
+                Objects.equals(tupleDomain, that.tupleDomain) &&
+                Objects.equals(limit, that.limit);
     }
 
     @Override
@@ -0,0 +1,425 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static java.util.Objects.requireNonNull;
+
+public class CSVTokenizer
+        implements Closeable
+{
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final int INITIAL_FIELDS = 64;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int QUOTE_STATE_LOOKAHEAD = DEFAULT_BUFFER_SIZE;
+
+    private final InputStream input;
+    private final byte delimiter;
+    private final CSVStructuralIndex structuralIndex;
+
+    // bytes of the current record live in buffer[recordStart, position)
+    private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+    private int bufferEnd;
+    private int position;
+    private int recordStart;
+    private int fieldStart;
+    private long bytesRead;
+    private boolean endOfInput;
+
+    private int[] fieldStarts = new int[INITIAL_FIELDS];
+    private int[] fieldEnds = new int[INITIAL_FIELDS];
+    private boolean[] fieldQuoted = new boolean[INITIAL_FIELDS];
+    private boolean[] fieldUnquoteRequired = new boolean[INITIAL_FIELDS];
+    private int fieldCount;
+    // the fields after the last projected one are parsed only to find the end of the record
+    private int maxFields = Integer.MAX_VALUE;
+
+    private enum State
+    {
+        FIELD_START,
+        UNQUOTED,
+        QUOTED,
+        QUOTE_IN_QUOTED
+    }
+
+    public CSVTokenizer(InputStream input, char delimiter)
+    {
+        this.input = requireNonNull(input, "input is null");
+        // multi-byte UTF-8 sequences never contain ASCII bytes, so an ASCII delimiter can be matched byte by byte
+        checkArgument(delimiter < 0x80, "delimiter must be an ASCII character: %s", delimiter);
+        this.delimiter = (byte) delimiter;
+        this.structuralIndex = new CSVStructuralIndex(this.delimiter);
+    }
+
+    public void setMaxFields(int maxFields)
+    {
+        checkArgument(maxFields >= 0, "maxFields is negative");
+        this.maxFields = maxFields;
+    }
+
+    public boolean advance()
+            throws IOException
+    {
+        fieldCount = 0;
+        recordStart = position;
+        fieldStart = position;
+        if (position == bufferEnd && !fill()) {
+            return false;
+        }
+
+        State state = State.FIELD_START;
+        boolean unquoteRequired = false;
+        while (true) {
+            if (position == bufferEnd && !fill()) {
+                // the end of the input terminates the last record
+                addField(position, state == State.QUOTED || state == State.QUOTE_IN_QUOTED, unquoteRequired || state == State.QUOTED);
+                return true;
+            }
+            int next = structuralIndex.next(position, bufferEnd);
+            if (next > position) {
+                // skip the bytes that cannot change the state
+                if (state == State.FIELD_START) {
+                    state = State.UNQUOTED;
+                }
+                else if (state == State.QUOTE_IN_QUOTED && (next - position > 1 || buffer[position] != CR)) {
+                    // characters after the closing quote are kept as they are
+                    unquoteRequired = true;
+                }
+                position = next;
+                continue;
+            }
+            byte b = buffer[position++];
+            switch (state) {
+                case FIELD_START:
+                    if (b == QUOTE) {
+                        state = State.QUOTED;
+                    }
+                    else if (b == delimiter) {
+                        addField(position - 1, false, false);
+                    }
+                    else if (b == LF) {
+                        addField(trimCarriageReturn(position - 1), false, false);
+                        return true;
+                    }
+                    break;
+                case UNQUOTED:
+                    if (b == delimiter) {
+                        addField(position - 1, false, false);
+                        state = State.FIELD_START;
+                    }
+                    else if (b == LF) {
+                        addField(trimCarriageReturn(position - 1), false, false);
+                        return true;
+                    }
+                    break;
+                case QUOTED:
+                    // delimiters and line breaks are part of a quoted field
+                    if (b == QUOTE) {
+                        state = State.QUOTE_IN_QUOTED;
+                    }
+                    break;
+                case QUOTE_IN_QUOTED:
+                    if (b == QUOTE) {
+                        // escaped quote
+                        unquoteRequired = true;
+                        state = State.QUOTED;
+                    }
+                    else if (b == delimiter) {
+                        addField(position - 1, true, unquoteRequired);
+                        unquoteRequired = false;
+                        state = State.FIELD_START;
+                    }
+                    else if (b == LF) {
+                        addField(trimCarriageReturn(position - 1), true, unquoteRequired);
+                        return true;
+                    }
+                    break;
+            }
+        }
+    }
+
+    // moves to the first record that starts after the first byte of the input, for reading from the middle of a file
+    public void skipToNextRecord()
+            throws IOException
+    {
+        fieldCount = 0;
+        recordStart = position;
+        boolean quoted = startsInsideQuotes();
+        while (true) {
+            if (position == bufferEnd) {
+                recordStart = position;
+                if (!fill()) {
+                    return;
+                }
+            }
+            int next = structuralIndex.next(position, bufferEnd);
+            if (next == bufferEnd) {
+                position = next;
+                continue;
+            }
+            byte b = buffer[next];
+            position = next + 1;
+            if (b == QUOTE) {
+                // doubled quotes flip the state twice
+                quoted = !quoted;
+            }
+            else if (b == LF && !quoted) {
+                recordStart = position;
+                return;
+            }
+        }
+    }
+
+    // Moves past at most maxRecords records that start before maxConsumed bytes of input without splitting
+    // them into fields, and returns how many there were. Up to the next quote, every line feed ends a record,
+    // so only the records that contain quotes or cross the end of the buffer go through advance().
+    public long skipRecords(long maxRecords, LongSupplier maxConsumed)
+            throws IOException
+    {
+        long records = 0;
+        int nextQuote = -1;
+        while (records < maxRecords && getConsumedBytes() < maxConsumed.getAsLong()) {
+            if (position == bufferEnd) {
+                recordStart = position;
+                if (!fill()) {
+                    break;
+                }
+                nextQuote = -1;
+            }
+            if (nextQuote < position) {
+                nextQuote = indexOf(QUOTE, position, bufferEnd);
+            }
+            int lineFeed = indexOf(LF, position, nextQuote);
+            if (lineFeed < nextQuote) {
+                position = lineFeed + 1;
+                recordStart = position;
+                records++;
+                continue;
+            }
+            if (!advance()) {
+                break;
+            }
+            nextQuote = -1;
+            records++;
+        }
+        fieldCount = 0;
+        return records;
+    }
+
+    public int getFieldCount()
+    {
+        return fieldCount;
+    }
+
+    public int getFieldStart(int field)
+    {
+        checkElementIndex(field, fieldCount);
+        return fieldStarts[field];
+    }
+
+    public int getFieldEnd(int field)
+    {
+        checkElementIndex(field, fieldCount);
+        return fieldEnds[field];
+    }
+
+    // the returned slice is a view over the read buffer and is only valid until the next call to advance()
+    public Slice getSlice(int field)
+    {
+        checkElementIndex(field, fieldCount);
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (!fieldQuoted[field]) {
+            return Slices.wrappedBuffer(buffer, start, end - start);
+        }
+        if (!fieldUnquoteRequired[field] && end - start >= 2 && buffer[end - 1] == QUOTE) {
+            return Slices.wrappedBuffer(buffer, start + 1, end - start - 2);
+        }
+        byte[] value = new byte[end - start];
+        int length = 0;
+        for (int i = start + 1; i < end; i++) {
+            byte b = buffer[i];
+            if (b == QUOTE) {
+                if (i + 1 < end && buffer[i + 1] == QUOTE) {
+                    value[length++] = QUOTE;
+                    i++;
+                }
+                continue;
+            }
+            value[length++] = b;
+        }
+        return Slices.wrappedBuffer(value, 0, length);
+    }
+
+    public String getString(int field)
+    {
+        return getSlice(field).toStringUtf8();
+    }
+
+    public String[] getStrings()
+    {
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = getString(i);
+        }
+        return fields;
+    }
+
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    // bytes of the input up to the end of the current record
+    public long getConsumedBytes()
+    {
+        return bytesRead - (bufferEnd - position);
+    }
+
+    public long getRetainedSizeInBytes()
+    {
+        return buffer.length + structuralIndex.getRetainedSizeInBytes() + (long) fieldStarts.length * (Integer.BYTES * 2 + 2);
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        input.close();
+    }
+
+    // Finds whether the input starts inside a quoted field. A quote followed by a regular character
+    // can only open a field, and a quote preceded by a regular character can only close one, so the
+    // first such quote and the parity of the quotes before it determine the state at the start. Up to
+    // the end of the file every quoted field is closed, so there the parity alone is enough. Without
+    // any quote the input starts outside quotes, unless a quoted field is longer than the lookahead.
+    // Otherwise every quote may open or close a field, and the split fails instead of guessing.
+    private boolean startsInsideQuotes()
+            throws IOException
+    {
+        while (bufferEnd - position < QUOTE_STATE_LOOKAHEAD && fill()) {
+            // read ahead
+        }
+        int quotes = 0;
+        for (int i = structuralIndex.next(position, bufferEnd); i < bufferEnd; i = structuralIndex.next(i + 1, bufferEnd)) {
+            if (buffer[i] != QUOTE) {
+                continue;
+            }
+            if (i + 1 < bufferEnd && isRegular(buffer[i + 1])) {
+                return quotes % 2 == 1;
+            }
+            if (i > position && isRegular(buffer[i - 1])) {
+                return quotes % 2 == 0;
+            }
+            quotes++;
+        }
+        if (quotes == 0 || endOfInput) {
+            return quotes % 2 == 1;
+        }
+        throw new IOException("Cannot determine whether the split starts inside a quoted field, set csv.range-splits-enabled=false to read the file in a single split");
+    }
+
+    // the position of the first b in buffer[from, to), or to if there is none
+    private int indexOf(byte b, int from, int to)
+    {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private boolean isRegular(byte b)
+    {
+        return b != QUOTE && b != delimiter && b != LF && b != CR;
+    }
+
+    private int trimCarriageReturn(int end)
+    {
+        if (end > fieldStart && buffer[end - 1] == CR) {
+            return end - 1;
+        }
+        return end;
+    }
+
+    private void addField(int end, boolean quoted, boolean unquoteRequired)
+    {
+        if (fieldCount == maxFields) {
+            fieldStart = position;
+            return;
+        }
+        if (fieldCount == fieldStarts.length) {
+            int newLength = fieldCount * 2;
+            fieldStarts = Arrays.copyOf(fieldStarts, newLength);
+            fieldEnds = Arrays.copyOf(fieldEnds, newLength);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, newLength);
+            fieldUnquoteRequired = Arrays.copyOf(fieldUnquoteRequired, newLength);
+        }
+        fieldStarts[fieldCount] = fieldStart;
+        fieldEnds[fieldCount] = end;
+        fieldQuoted[fieldCount] = quoted;
+        fieldUnquoteRequired[fieldCount] = unquoteRequired;
+        fieldCount++;
+        fieldStart = position;
+    }
+
+    private boolean fill()
+            throws IOException
+    {
+        if (endOfInput) {
+            return false;
+        }
+        boolean shifted = recordStart > 0;
+        if (shifted) {
+            // move the partial record to the front of the buffer
+            int shift = recordStart;
+            System.arraycopy(buffer, shift, buffer, 0, bufferEnd - shift);
+            bufferEnd -= shift;
+            position -= shift;
+            fieldStart -= shift;
+            recordStart = 0;
+            for (int i = 0; i < fieldCount; i++) {
+                fieldStarts[i] -= shift;
+                fieldEnds[i] -= shift;
+            }
+        }
+        else if (bufferEnd == buffer.length) {
+            // the record does not fit into the buffer
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = input.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (read < 0) {
+            endOfInput = true;
+            return false;
+        }
+        bufferEnd += read;
+        bytesRead += read;
+        // the shifted bytes are indexed again, which is cheap as they are part of a single record
+        structuralIndex.index(buffer, shifted ? 0 : bufferEnd - read, bufferEnd);
+        return true;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.airlift.log.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.util.Objects.requireNonNull;
+
+// Reads a stream ahead in another thread, so that decompression and parsing run on separate cores.
+// The buffers are passed back and forth between the threads and are never reallocated.
+public class PipelinedInputStream
+        extends InputStream
+{
+    private static final Logger logger = Logger.get(PipelinedInputStream.class);
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int BUFFERS = 4;
+
+    private final InputStream input;
+    private final BlockingQueue<Buffer> filled = new ArrayBlockingQueue<>(BUFFERS + 1);
+    private final BlockingQueue<Buffer> empty = new ArrayBlockingQueue<>(BUFFERS);
+    private final Future<?> reader;
+    private volatile IOException failure;
+    private Buffer current;
+    private boolean finished;
+    // guarded by this
+    private boolean started;
+    private boolean closed;
+
+    // throws RejectedExecutionException when the executor has no thread left
+    public PipelinedInputStream(InputStream input, ExecutorService executor)
+    {
+        this.input = requireNonNull(input, "input is null");
+        for (int i = 0; i < BUFFERS; i++) {
+            empty.add(new Buffer(BUFFER_SIZE));
+        }
+        this.reader = executor.submit(this::readAhead);
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] output, int offset, int length)
+            throws IOException
+    {
+        if (isClosed()) {
+            throw new IOException("Stream is closed");
+        }
+        if (length == 0) {
+            return 0;
+        }
+        while (current == null || current.position == current.length) {
+            if (finished) {
+                return -1;
+            }
+            if (current != null) {
+                empty.add(current);
+                current = null;
+            }
+            try {
+                current = filled.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (current.length < 0) {
+                finished = true;
+                current = null;
+                if (failure != null) {
+                    throw new IOException(failure);
+                }
+                return -1;
+            }
+        }
+        int read = Math.min(length, current.length - current.position);
+        System.arraycopy(current.data, current.position, output, offset, read);
+        current.position += read;
+        return read;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!started) {
+                input.close();
+            }
+        }
+        // the reading thread closes the input once it stops
+        reader.cancel(true);
+    }
+
+    // the buffers are allocated for the lifetime of the stream
+    public long getRetainedSizeInBytes()
+    {
+        return isClosed() ? 0 : (long) BUFFERS * BUFFER_SIZE;
+    }
+
+    private synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    private void readAhead()
+    {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            started = true;
+        }
+        try {
+            readBuffers(input);
+        }
+        finally {
+            try {
+                input.close();
+            }
+            catch (IOException e) {
+                logger.warn(e, "Error while closing pipelined stream");
+            }
+        }
+    }
+
+    private void readBuffers(InputStream input)
+    {
+        try {
+            while (true) {
+                Buffer buffer = empty.take();
+                buffer.position = 0;
+                buffer.length = 0;
+                while (buffer.length < buffer.data.length) {
+                    int read = input.read(buffer.data, buffer.length, buffer.data.length - buffer.length);
+                    if (read < 0) {
+                        break;
+                    }
+                    buffer.length += read;
+                }
+                if (buffer.length == 0) {
+                    break;
+                }
+                filled.add(buffer);
+            }
+        }
+        catch (InterruptedException e) {
+            // closed by the reader
+            return;
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        catch (RuntimeException e) {
+            failure = new IOException(e);
+        }
+        // the end of the stream
+        Buffer end = new Buffer(0);
+        end.length = -1;
+        filled.add(end);
+    }
+
+    private static class Buffer
+    {
+        private final byte[] data;
+        private int position;
+        private int length;
+
+        private Buffer(int size)
+        {
+            this.data = new byte[size];
+        }
+    }
+}
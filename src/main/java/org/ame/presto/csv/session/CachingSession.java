@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv.session;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+// reads files through the local disk cache of the worker, everything else goes to the remote session
+public class CachingSession
+        implements ISession
+{
+    private final ISession delegate;
+    private final FileCache fileCache;
+    // the cache key is taken once per session, so that all reads of a file see the same version
+    private final Map<String, FileEntry> files = new HashMap<>();
+
+    public CachingSession(ISession delegate, FileCache fileCache)
+    {
+        this.delegate = requireNonNull(delegate, "delegate is null");
+        this.fileCache = requireNonNull(fileCache, "fileCache is null");
+    }
+
+    @Override
+    public InputStream getInputStream(String path, long offset)
+            throws Exception
+    {
+        return getInputStream(path, offset, Long.MAX_VALUE - offset);
+    }
+
+    @Override
+    public InputStream getInputStream(String path, long offset, long length)
+            throws Exception
+    {
+        FileEntry file = files.get(path);
+        if (file == null) {
+            file = delegate.getFileEntry(path);
+            files.put(path, file);
+        }
+        return fileCache.getInputStream(file, offset, length, (start, blockLength) -> delegate.getInputStream(path, start, blockLength));
+    }
+
+    @Override
+    public FileEntry getFileEntry(String path)
+            throws Exception
+    {
+        return delegate.getFileEntry(path);
+    }
+
+    @Override
+    public void listFiles(String path, Consumer<FileEntry> consumer)
+            throws Exception
+    {
+        delegate.listFiles(path, consumer);
+    }
+
+    @Override
+    public List<String> getSchemas()
+            throws Exception
+    {
+        return delegate.getSchemas();
+    }
+
+    @Override
+    public void writeFile(String path, byte[] content)
+            throws Exception
+    {
+        delegate.writeFile(path, content);
+    }
+
+    @Override
+    public void close()
+    {
+        delegate.close();
+    }
+}
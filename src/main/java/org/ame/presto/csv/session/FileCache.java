@@ -0,0 +1,267 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv.session;
+
+import com.facebook.airlift.log.Logger;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.util.Objects.requireNonNull;
+
+// Keeps blocks of remote files on the local disk of the worker. Blocks are keyed by the path, size
+// and modification time of the file, so a changed file is never read from the cache. Blocks are
+// written to a temporary file and renamed when complete, and a block is downloaded only once
+// while other readers of the same block wait for it. The least recently used blocks are deleted
+// once the cache grows beyond its maximum size.
+public class FileCache
+{
+    private static final Logger logger = Logger.get(FileCache.class);
+    private static final long BLOCK_SIZE = 8 * 1024 * 1024;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxSize;
+    // block files and their sizes in access order, guarded by this
+    private final LinkedHashMap<String, Long> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentMap<String, CompletableFuture<?>> downloads = new ConcurrentHashMap<>();
+    private long size;
+
+    public FileCache(String directory, long maxSize)
+    {
+        checkArgument(maxSize > 0, "maxSize must be positive");
+        this.directory = Paths.get(requireNonNull(directory, "directory is null"));
+        this.maxSize = maxSize;
+        try {
+            Files.createDirectories(this.directory);
+            // blocks left by a previous run are still valid, unfinished downloads are not
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+                for (Path file : files) {
+                    if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                        Files.deleteIfExists(file);
+                    }
+                    else {
+                        blocks.put(file.getFileName().toString(), Files.size(file));
+                        size += Files.size(file);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error while opening file cache " + directory, e);
+        }
+        evict();
+    }
+
+    public InputStream getInputStream(FileEntry file, long offset, long length, BlockLoader loader)
+    {
+        return new CachedInputStream(file, offset, Math.min(file.getSize(), offset + length), loader);
+    }
+
+    private FileChannel openBlock(FileEntry file, long block, BlockLoader loader)
+            throws IOException
+    {
+        String name = Hashing.sha256()
+                .hashString(format("%s#%s#%s#%s", file.getPath(), file.getSize(), file.getModificationTime(), block), UTF_8)
+                .toString();
+        long start = block * BLOCK_SIZE;
+        long length = Math.min(BLOCK_SIZE, file.getSize() - start);
+        while (true) {
+            synchronized (this) {
+                if (blocks.get(name) != null) {
+                    // opened while holding the lock, so that the block cannot be evicted in between
+                    return FileChannel.open(directory.resolve(name));
+                }
+            }
+            CompletableFuture<?> download = new CompletableFuture<>();
+            CompletableFuture<?> existing = downloads.putIfAbsent(name, download);
+            if (existing != null) {
+                // another reader is downloading the block, a failed download is tried again
+                try {
+                    existing.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for " + file.getPath(), e);
+                }
+                catch (ExecutionException e) {
+                    logger.debug(e, "Download of %s failed in another reader", file.getPath());
+                }
+                continue;
+            }
+            try {
+                FileChannel channel = download(name, start, length, loader);
+                download.complete(null);
+                return channel;
+            }
+            catch (IOException | RuntimeException e) {
+                download.completeExceptionally(e);
+                throw e;
+            }
+            finally {
+                downloads.remove(name, download);
+            }
+        }
+    }
+
+    // returns the downloaded block already opened, so that evicting it cannot make its reader download it again
+    private FileChannel download(String name, long start, long length, BlockLoader loader)
+            throws IOException
+    {
+        Path temporary = directory.resolve(name + "." + UUID.randomUUID() + TEMPORARY_SUFFIX);
+        try {
+            long copied;
+            try (InputStream input = loader.open(start, length)) {
+                copied = Files.copy(input, temporary);
+            }
+            if (copied != length) {
+                throw new IOException(format("File changed while reading, expected %s bytes at %s but got %s", length, start, copied));
+            }
+            Files.move(temporary, directory.resolve(name), ATOMIC_MOVE);
+        }
+        catch (Exception e) {
+            Files.deleteIfExists(temporary);
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException(e);
+        }
+        FileChannel channel;
+        synchronized (this) {
+            blocks.put(name, length);
+            size += length;
+            channel = FileChannel.open(directory.resolve(name));
+        }
+        evict();
+        return channel;
+    }
+
+    private void evict()
+    {
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> iterator = blocks.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Map.Entry<String, Long> block = iterator.next();
+                iterator.remove();
+                size -= block.getValue();
+                // readers that have the block open keep reading the deleted file
+                try {
+                    Files.deleteIfExists(directory.resolve(block.getKey()));
+                }
+                catch (IOException e) {
+                    logger.warn(e, "Error while deleting cached block %s", block.getKey());
+                }
+            }
+        }
+    }
+
+    public interface BlockLoader
+    {
+        InputStream open(long offset, long length)
+                throws Exception;
+    }
+
+    private class CachedInputStream
+            extends InputStream
+    {
+        private final FileEntry file;
+        private final long end;
+        private final BlockLoader loader;
+        private long position;
+        private InputStream block;
+        private long blockEnd;
+        private boolean closed;
+
+        private CachedInputStream(FileEntry file, long offset, long end, BlockLoader loader)
+        {
+            this.file = requireNonNull(file, "file is null");
+            this.position = offset;
+            this.end = end;
+            this.loader = requireNonNull(loader, "loader is null");
+        }
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException
+        {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (length == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            if (block == null) {
+                long index = position / BLOCK_SIZE;
+                blockEnd = Math.min((index + 1) * BLOCK_SIZE, end);
+                try {
+                    block = new MappedFileInputStream(openBlock(file, index, loader), position - index * BLOCK_SIZE, blockEnd - index * BLOCK_SIZE);
+                }
+                catch (NoSuchFileException e) {
+                    throw new IOException("Cached block disappeared: " + file.getPath(), e);
+                }
+            }
+            int read = block.read(buffer, offset, (int) Math.min(length, blockEnd - position));
+            if (read < 0) {
+                throw new IOException("Cached block is shorter than expected: " + file.getPath());
+            }
+            position += read;
+            if (position == blockEnd) {
+                block.close();
+                block = null;
+            }
+            return read;
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            closed = true;
+            if (block != null) {
+                block.close();
+                block = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv.session;
+
+import java.util.Objects;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+public class FileEntry
+{
+    // path relative to the base directory, separated by '/'
+    private final String path;
+    private final boolean directory;
+    private final long size;
+    private final long modificationTime;
+
+    public FileEntry(String path, boolean directory, long size, long modificationTime)
+    {
+        this.path = requireNonNull(path, "path is null");
+        this.directory = directory;
+        this.size = size;
+        this.modificationTime = modificationTime;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public String getName()
+    {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    public boolean isDirectory()
+    {
+        return directory;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getModificationTime()
+    {
+        return modificationTime;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(path, directory, size, modificationTime);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        FileEntry that = (FileEntry) o;
+        return Objects.equals(this.path, that.path) &&
+                this.directory == that.directory &&
+                this.size == that.size &&
+                this.modificationTime == that.modificationTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("path", path)
+                .add("directory", directory)
+                .add("size", size)
+                .add("modificationTime", modificationTime)
+                .toString();
+    }
+}
@@ -13,18 +13,52 @@
  */
 package org.ame.presto.csv.session;
 
+import com.google.common.io.ByteStreams;
+
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
+// paths are relative to the base directory and separated by '/'
 public interface ISession
 {
-    InputStream getInputStream(String schemaName, String tableName)
+    default InputStream getInputStream(String path)
+            throws Exception
+    {
+        return getInputStream(path, 0);
+    }
+
+    InputStream getInputStream(String path, long offset)
+            throws Exception;
+
+    // reads at most length bytes starting at offset
+    default InputStream getInputStream(String path, long offset, long length)
+            throws Exception
+    {
+        return ByteStreams.limit(getInputStream(path, offset), length);
+    }
+
+    FileEntry getFileEntry(String path)
+            throws Exception;
+
+    default List<FileEntry> listFiles(String path)
+            throws Exception
+    {
+        List<FileEntry> files = new ArrayList<>();
+        listFiles(path, files::add);
+        return files;
+    }
+
+    // passes the entries of a directory to the consumer as they are listed, without keeping them in memory
+    void listFiles(String path, Consumer<FileEntry> consumer)
             throws Exception;
 
     List<String> getSchemas()
             throws Exception;
 
-    List<String> getTables(String schemaName, String suffix)
+    // replaces the file with the content, readers never see a partially written file
+    void writeFile(String path, byte[] content)
             throws Exception;
 
     void close();
@@ -14,18 +14,30 @@
 package org.ame.presto.csv.session;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
 
 public class LocalSession
         implements ISession
 {
     private String base;
+    private final boolean mmapEnabled;
 
     public LocalSession(Map<String, String> sessionInfo)
     {
@@ -33,6 +45,7 @@ public class LocalSession
         if (!base.endsWith("/") || !base.endsWith("\\")) {
             base += "/";
         }
+        this.mmapEnabled = Boolean.parseBoolean(sessionInfo.get("mmapEnabled"));
     }
 
     private static List<File> listFiles(File dir)
@@ -47,10 +60,50 @@ public class LocalSession
     }
 
     @Override
-    public InputStream getInputStream(String schemaName, String tableName)
+    public InputStream getInputStream(String path, long offset)
             throws IOException
     {
-        return new File(base + schemaName + "/" + tableName).toPath().toUri().toURL().openStream();
+        return getInputStream(path, offset, Long.MAX_VALUE - offset);
+    }
+
+    @Override
+    public InputStream getInputStream(String path, long offset, long length)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(new File(base + path).toPath(), StandardOpenOption.READ);
+        if (mmapEnabled) {
+            // the file is read up to its size when it is opened
+            return new MappedFileInputStream(channel, offset, Math.min(channel.size(), offset + length));
+        }
+        channel.position(offset);
+        return ByteStreams.limit(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public FileEntry getFileEntry(String path)
+            throws IOException
+    {
+        File file = new File(base + path);
+        if (!file.exists()) {
+            throw new FileNotFoundException(base + path);
+        }
+        return new FileEntry(path, file.isDirectory(), file.length(), file.lastModified());
+    }
+
+    @Override
+    public void listFiles(String path, Consumer<FileEntry> consumer)
+            throws IOException
+    {
+        File directory = new File(base + path);
+        if (!directory.isDirectory()) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory.toPath())) {
+            for (Path file : files) {
+                File entry = file.toFile();
+                consumer.accept(new FileEntry(path + "/" + entry.getName(), entry.isDirectory(), entry.length(), entry.lastModified()));
+            }
+        }
     }
 
     @Override
@@ -66,15 +119,19 @@ public class LocalSession
     }
 
     @Override
-    public List<String> getTables(String schemaName, String suffix)
+    public void writeFile(String path, byte[] content)
+            throws IOException
     {
-        List<String> tables = new ArrayList<>();
-        for (File file : listFiles(new File(base).toPath().resolve(schemaName).toFile())) {
-            if (file.isFile() && file.getName().endsWith(suffix)) {
-                tables.add(file.getName());
-            }
+        File file = new File(base + path);
+        // the temporary file is hidden, so that it is never taken for a data file
+        Path temporary = file.toPath().resolveSibling("." + file.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.write(temporary, content);
+            Files.move(temporary, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temporary);
         }
-        return tables;
     }
 
     @Override
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.util.Objects.requireNonNull;
+
+// Reads a range of a local file through memory mapped windows. The bytes are copied straight
+// from the page cache into the buffer of the caller, without a system call per read.
+public class MappedFileInputStream
+        extends InputStream
+{
+    private static final long WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long end;
+    private long windowEnd;
+    private MappedByteBuffer window;
+    private boolean closed;
+
+    public MappedFileInputStream(FileChannel channel, long offset, long end)
+    {
+        checkArgument(offset >= 0, "offset is negative");
+        this.channel = requireNonNull(channel, "channel is null");
+        this.windowEnd = offset;
+        this.end = end;
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        if (!ensureMapped()) {
+            return -1;
+        }
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length)
+            throws IOException
+    {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureMapped()) {
+            return -1;
+        }
+        int read = Math.min(length, window.remaining());
+        window.get(buffer, offset, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n)
+            throws IOException
+    {
+        if (n <= 0 || !ensureMapped()) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, window.remaining());
+        window.position(window.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return window == null ? 0 : window.remaining();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // the mapping itself is released once the window is garbage collected
+        window = null;
+        channel.close();
+    }
+
+    private boolean ensureMapped()
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (window != null && window.hasRemaining()) {
+            return true;
+        }
+        if (windowEnd >= end) {
+            return false;
+        }
+        long size = Math.min(WINDOW_SIZE, end - windowEnd);
+        window = channel.map(READ_ONLY, windowEnd, size);
+        windowEnd += size;
+        return true;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv.session;
+
+import com.facebook.airlift.log.Logger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// Keeps authenticated sftp channels to one host for reuse. Every channel has its own ssh session,
+// and at most maxConnections of them are open at the same time.
+public class SFTPConnectionPool
+        implements Closeable
+{
+    private static final Logger logger = Logger.get(SFTPConnectionPool.class);
+    private static final int TIMEOUT = 10000;
+
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final long idleTimeoutMillis;
+    private final long keepAliveIntervalMillis;
+    private final long maxWaitMillis;
+    private final Semaphore connections;
+    // most recently used first, so that rarely used channels become idle and are evicted
+    private final Deque<IdleChannel> idleChannels = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor;
+    private boolean closed;
+
+    public SFTPConnectionPool(String host, int port, String username, String password, int maxConnections, long idleTimeoutMillis, long keepAliveIntervalMillis, long maxWaitMillis)
+    {
+        checkArgument(maxConnections > 0, "maxConnections must be positive");
+        this.host = requireNonNull(host, "host is null");
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.keepAliveIntervalMillis = keepAliveIntervalMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.connections = new Semaphore(maxConnections, true);
+        this.evictor = newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("csv-sftp-evictor-%s")
+                .setDaemon(true)
+                .build());
+        long evictionInterval = Math.max(idleTimeoutMillis / 2, 1000);
+        evictor.scheduleWithFixedDelay(this::evictIdleChannels, evictionInterval, evictionInterval, MILLISECONDS);
+    }
+
+    public ChannelSftp borrow()
+            throws Exception
+    {
+        if (!connections.tryAcquire(maxWaitMillis, MILLISECONDS)) {
+            throw new IOException(format("Timed out waiting for a sftp connection to %s:%s", host, port));
+        }
+        return take();
+    }
+
+    // borrows a channel without waiting, returns null when all connections are in use
+    public ChannelSftp tryBorrow()
+            throws Exception
+    {
+        if (!connections.tryAcquire()) {
+            return null;
+        }
+        return take();
+    }
+
+    public void release(ChannelSftp channel)
+    {
+        try {
+            synchronized (this) {
+                if (!closed && channel.isConnected() && channel.getSession().isConnected()) {
+                    idleChannels.push(new IdleChannel(channel, System.currentTimeMillis()));
+                    return;
+                }
+            }
+            disconnect(channel);
+        }
+        catch (JSchException e) {
+            disconnect(channel);
+        }
+        finally {
+            connections.release();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        evictor.shutdownNow();
+        List<IdleChannel> channels;
+        synchronized (this) {
+            closed = true;
+            channels = new ArrayList<>(idleChannels);
+            idleChannels.clear();
+        }
+        channels.forEach(idle -> disconnect(idle.channel));
+    }
+
+    private ChannelSftp take()
+            throws Exception
+    {
+        try {
+            while (true) {
+                IdleChannel idle = pollIdleChannel();
+                if (idle == null) {
+                    return connect();
+                }
+                if (isHealthy(idle)) {
+                    return idle.channel;
+                }
+                disconnect(idle.channel);
+            }
+        }
+        catch (Exception e) {
+            connections.release();
+            throw e;
+        }
+    }
+
+    private synchronized IdleChannel pollIdleChannel()
+    {
+        return idleChannels.poll();
+    }
+
+    private ChannelSftp connect()
+            throws JSchException
+    {
+        Session session = new JSch().getSession(username, host, port);
+        try {
+            session.setPassword(password);
+            session.setConfig("StrictHostKeyChecking", "no");
+            // keep-alive messages keep firewalls from dropping idle connections and detect dead ones
+            session.setServerAliveInterval((int) keepAliveIntervalMillis);
+            session.connect(TIMEOUT);
+            ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+            channel.connect(TIMEOUT);
+            return channel;
+        }
+        catch (JSchException e) {
+            session.disconnect();
+            throw e;
+        }
+    }
+
+    private boolean isHealthy(IdleChannel idle)
+    {
+        try {
+            if (!idle.channel.isConnected() || !idle.channel.getSession().isConnected()) {
+                return false;
+            }
+            // keep-alive messages only run every interval, so a channel idle for longer is checked with a round trip
+            if (System.currentTimeMillis() - idle.idleSince > keepAliveIntervalMillis) {
+                idle.channel.realpath(".");
+            }
+            return true;
+        }
+        catch (Exception e) {
+            logger.debug(e, "Discarding broken sftp connection to %s:%s", host, port);
+            return false;
+        }
+    }
+
+    private void evictIdleChannels()
+    {
+        List<IdleChannel> evicted = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Iterator<IdleChannel> iterator = idleChannels.iterator();
+            while (iterator.hasNext()) {
+                IdleChannel idle = iterator.next();
+                if (now - idle.idleSince > idleTimeoutMillis) {
+                    iterator.remove();
+                    evicted.add(idle);
+                }
+            }
+        }
+        evicted.forEach(idle -> disconnect(idle.channel));
+    }
+
+    private static void disconnect(ChannelSftp channel)
+    {
+        try {
+            Session session = channel.getSession();
+            channel.disconnect();
+            session.disconnect();
+        }
+        catch (JSchException e) {
+            channel.disconnect();
+        }
+    }
+
+    private static class IdleChannel
+    {
+        private final ChannelSftp channel;
+        private final long idleSince;
+
+        private IdleChannel(ChannelSftp channel, long idleSince)
+        {
+            this.channel = channel;
+            this.idleSince = idleSince;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv.session;
+
+import com.google.common.io.ByteStreams;
+import com.jcraft.jsch.ChannelSftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+// Reads a range of a file by downloading consecutive chunks over several sftp channels at once.
+// A single channel is limited by the sftp request window, so the chunks are fetched ahead in
+// parallel and handed out in order.
+public class SFTPParallelInputStream
+        extends InputStream
+{
+    private static final byte[] EMPTY = new byte[0];
+
+    private final String path;
+    private final long end;
+    private final int chunkSize;
+    private final int readAhead;
+    private final ExecutorService executor;
+    private final BlockingQueue<ChannelSftp> channels;
+    private final List<ChannelSftp> borrowedChannels;
+    private final Consumer<ChannelSftp> releaser;
+    private final Deque<Future<byte[]>> chunks = new ArrayDeque<>();
+    private long nextChunk;
+    private byte[] current = EMPTY;
+    private int position;
+    private volatile boolean closed;
+
+    // channels are used exclusively by the stream until it is closed, then the borrowed ones are passed to the releaser
+    public SFTPParallelInputStream(
+            String path,
+            long offset,
+            long length,
+            int chunkSize,
+            ChannelSftp channel,
+            List<ChannelSftp> borrowedChannels,
+            Consumer<ChannelSftp> releaser,
+            ExecutorService executor)
+    {
+        checkArgument(offset >= 0, "offset is negative");
+        checkArgument(length >= 0, "length is negative");
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        this.path = requireNonNull(path, "path is null");
+        this.nextChunk = offset;
+        this.end = offset + length;
+        this.chunkSize = chunkSize;
+        this.executor = requireNonNull(executor, "executor is null");
+        this.borrowedChannels = requireNonNull(borrowedChannels, "borrowedChannels is null");
+        this.releaser = requireNonNull(releaser, "releaser is null");
+        this.channels = new LinkedBlockingQueue<>();
+        channels.add(requireNonNull(channel, "channel is null"));
+        channels.addAll(borrowedChannels);
+        // keep every channel busy while the reader consumes the chunk in front
+        this.readAhead = channels.size() * 2;
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        if (position == current.length && !nextChunk()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length)
+            throws IOException
+    {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == current.length && !nextChunk()) {
+            return -1;
+        }
+        int read = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available()
+    {
+        return current.length - position;
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // chunks that have not started skip the download, the running ones still hold their channel
+        for (Future<byte[]> chunk : chunks) {
+            try {
+                chunk.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                // the result is not needed anymore
+            }
+        }
+        chunks.clear();
+        current = EMPTY;
+        position = 0;
+        borrowedChannels.forEach(releaser);
+    }
+
+    // chunks being downloaded and the one being read
+    public long getRetainedSizeInBytes()
+    {
+        return closed ? 0 : (long) (readAhead + 1) * chunkSize;
+    }
+
+    private boolean nextChunk()
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        while (chunks.size() < readAhead && nextChunk < end) {
+            long start = nextChunk;
+            int length = (int) Math.min(chunkSize, end - start);
+            chunks.add(executor.submit(() -> download(start, length)));
+            nextChunk += length;
+        }
+        Future<byte[]> chunk = chunks.poll();
+        if (chunk == null) {
+            return false;
+        }
+        try {
+            current = chunk.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + path);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Error while reading " + path, e.getCause());
+        }
+        position = 0;
+        // a short chunk means that the file ended early
+        return current.length > 0 || nextChunk();
+    }
+
+    private byte[] download(long start, int length)
+            throws Exception
+    {
+        if (closed) {
+            return EMPTY;
+        }
+        ChannelSftp channel = channels.take();
+        try (InputStream input = channel.get(path, null, start)) {
+            byte[] buffer = new byte[length];
+            int read = ByteStreams.read(input, buffer, 0, length);
+            return read == length ? buffer : Arrays.copyOf(buffer, read);
+        }
+        finally {
+            channels.add(channel);
+        }
+    }
+}
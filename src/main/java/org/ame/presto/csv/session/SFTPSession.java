@@ -13,48 +13,91 @@
  */
 package org.ame.presto.csv.session;
 
+import com.google.common.io.ByteStreams;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
 
 public class SFTPSession
         implements ISession
 {
-    private static final Integer TIMEOUT = 10000;
-    private final Session session;
+    private final SFTPConnectionPool connectionPool;
+    private final ExecutorService executor;
+    private final int readParallelism;
+    private final int readChunkSize;
     private final ChannelSftp channel;
     private String base;
+    private boolean closed;
 
-    public SFTPSession(Map<String, String> sessionInfo)
+    public SFTPSession(Map<String, String> sessionInfo, SFTPConnectionPool connectionPool, ExecutorService executor)
             throws Exception
     {
         this.base = sessionInfo.get("base");
         if (!base.endsWith("/") || !base.endsWith("\\")) {
             base += "/";
         }
-        String host = sessionInfo.get("host");
-        int port = Integer.parseInt(sessionInfo.get("port"));
-        String username = sessionInfo.get("username");
-        String password = sessionInfo.get("password");
-        session = new JSch().getSession(username, host, port);
-        session.setPassword(password);
-        session.setConfig("StrictHostKeyChecking", "no");
-        session.connect(TIMEOUT);
-        channel = (ChannelSftp) session.openChannel("sftp");
-        channel.connect(TIMEOUT);
+        this.connectionPool = requireNonNull(connectionPool, "connectionPool is null");
+        this.executor = requireNonNull(executor, "executor is null");
+        this.readParallelism = Integer.parseInt(sessionInfo.get("readParallelism"));
+        this.readChunkSize = Integer.parseInt(sessionInfo.get("readChunkSize"));
+        this.channel = connectionPool.borrow();
+    }
+
+    @Override
+    public InputStream getInputStream(String path, long offset)
+            throws SftpException
+    {
+        return channel.get(base + path, null, offset);
+    }
+
+    @Override
+    public InputStream getInputStream(String path, long offset, long length)
+            throws Exception
+    {
+        if (readParallelism <= 1 || length <= readChunkSize) {
+            return ByteStreams.limit(getInputStream(path, offset), length);
+        }
+        // extra channels are only taken when the pool has them to spare, the channel of the session is always used
+        List<ChannelSftp> borrowedChannels = new ArrayList<>();
+        long chunks = (length + readChunkSize - 1) / readChunkSize;
+        while (borrowedChannels.size() < Math.min(readParallelism, chunks) - 1) {
+            ChannelSftp borrowed = connectionPool.tryBorrow();
+            if (borrowed == null) {
+                break;
+            }
+            borrowedChannels.add(borrowed);
+        }
+        return new SFTPParallelInputStream(base + path, offset, length, readChunkSize, channel, borrowedChannels, connectionPool::release, executor);
+    }
+
+    @Override
+    public FileEntry getFileEntry(String path)
+            throws SftpException
+    {
+        return toFileEntry(path, channel.stat(base + path));
     }
 
     @Override
-    public InputStream getInputStream(String schemaName, String tableName)
+    public void listFiles(String path, Consumer<FileEntry> consumer)
             throws SftpException
     {
-        return channel.get(base + schemaName + "/" + tableName);
+        channel.ls(base + path, entry -> {
+            if (!isSpecialEntry(entry)) {
+                consumer.accept(toFileEntry(path + "/" + entry.getFilename(), entry.getAttrs()));
+            }
+            return ChannelSftp.LsEntrySelector.CONTINUE;
+        });
     }
 
     @Override
@@ -64,7 +107,7 @@ public class SFTPSession
         List<String> schemas = new ArrayList<>();
         List<ChannelSftp.LsEntry> entries = channel.ls(base);
         for (ChannelSftp.LsEntry entry : entries) {
-            if (entry.getAttrs().isDir()) {
+            if (entry.getAttrs().isDir() && !isSpecialEntry(entry)) {
                 schemas.add(entry.getFilename());
             }
         }
@@ -72,27 +115,47 @@ public class SFTPSession
     }
 
     @Override
-    public List<String> getTables(String schemaName, String suffix)
+    public void writeFile(String path, byte[] content)
             throws SftpException
     {
-        List<String> tables = new ArrayList<>();
-        List<ChannelSftp.LsEntry> entries = channel.ls(base + schemaName);
-        for (ChannelSftp.LsEntry entry : entries) {
-            if (!entry.getAttrs().isDir() && entry.getFilename().endsWith(suffix)) {
-                tables.add(entry.getFilename());
+        int separator = path.lastIndexOf('/');
+        String temporary = path.substring(0, separator + 1) + "." + path.substring(separator + 1) + "." + UUID.randomUUID() + ".tmp";
+        channel.put(new ByteArrayInputStream(content), base + temporary);
+        try {
+            channel.rename(base + temporary, base + path);
+        }
+        catch (SftpException e) {
+            // servers without posix-rename cannot rename over an existing file
+            try {
+                channel.rm(base + path);
+                channel.rename(base + temporary, base + path);
+            }
+            catch (SftpException retry) {
+                channel.rm(base + temporary);
+                throw retry;
             }
         }
-        return tables;
     }
 
     @Override
     public void close()
     {
-        if (channel != null) {
-            channel.disconnect();
-        }
-        if (session != null) {
-            session.disconnect();
+        if (closed) {
+            return;
         }
+        closed = true;
+        // the channel goes back to the pool instead of being disconnected
+        connectionPool.release(channel);
+    }
+
+    private static boolean isSpecialEntry(ChannelSftp.LsEntry entry)
+    {
+        return entry.getFilename().equals(".") || entry.getFilename().equals("..");
+    }
+
+    private static FileEntry toFileEntry(String path, SftpATTRS attributes)
+    {
+        // the modification time of sftp is in seconds
+        return new FileEntry(path, attributes.isDir(), attributes.getSize(), attributes.getMTime() * 1000L);
     }
 }
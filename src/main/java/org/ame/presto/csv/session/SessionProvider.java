@@ -13,30 +13,83 @@
  */
 package org.ame.presto.csv.session;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import static java.lang.Long.parseLong;
+import static java.util.concurrent.Executors.newCachedThreadPool;
 
 public class SessionProvider
+        implements Closeable
 {
-    private ISession session;
+    private final Map<String, String> sessionInfo;
+    private final ProtocolType protocol;
+    private final SFTPConnectionPool connectionPool;
+    private final ExecutorService downloadExecutor;
+    private final FileCache fileCache;
 
     public SessionProvider(Map<String, String> sessionInfo)
     {
-        if (ProtocolType.FILE.toString().equals(sessionInfo.get("protocol").toLowerCase(Locale.ENGLISH))) {
-            this.session = new LocalSession(sessionInfo);
+        this.sessionInfo = sessionInfo;
+        this.protocol = ProtocolType.valueOf(sessionInfo.get("protocol").toUpperCase(Locale.ENGLISH));
+        if (protocol == ProtocolType.SFTP) {
+            // sftp connections are shared by all sessions of the catalog
+            this.connectionPool = new SFTPConnectionPool(
+                    sessionInfo.get("host"),
+                    Integer.parseInt(sessionInfo.get("port")),
+                    sessionInfo.get("username"),
+                    sessionInfo.get("password"),
+                    Integer.parseInt(sessionInfo.get("maxConnections")),
+                    parseLong(sessionInfo.get("idleTimeout")),
+                    parseLong(sessionInfo.get("keepAliveInterval")),
+                    parseLong(sessionInfo.get("maxConnectionWait")));
+            this.downloadExecutor = newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("csv-sftp-download-%s")
+                    .setDaemon(true)
+                    .build());
+            String cacheDirectory = sessionInfo.get("cacheDirectory");
+            this.fileCache = cacheDirectory == null ? null : new FileCache(cacheDirectory, parseLong(sessionInfo.get("cacheMaxSize")));
         }
-        if (ProtocolType.SFTP.toString().equals(sessionInfo.get("protocol").toLowerCase(Locale.ENGLISH))) {
-            try {
-                this.session = new SFTPSession(sessionInfo);
-            }
-            catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+        else {
+            this.connectionPool = null;
+            this.downloadExecutor = null;
+            this.fileCache = null;
         }
     }
 
     public ISession getSession()
     {
+        if (protocol == ProtocolType.FILE) {
+            return new LocalSession(sessionInfo);
+        }
+        try {
+            return new SFTPSession(sessionInfo, connectionPool, downloadExecutor);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // only splits read through the disk cache, the small reads of metadata and statistics would each fill a whole block
+    public ISession getSplitSession()
+    {
+        ISession session = getSession();
+        if (fileCache != null) {
+            return new CachingSession(session, fileCache);
+        }
         return session;
     }
+
+    @Override
+    public void close()
+    {
+        if (connectionPool != null) {
+            downloadExecutor.shutdownNow();
+            connectionPool.close();
+        }
+    }
 }
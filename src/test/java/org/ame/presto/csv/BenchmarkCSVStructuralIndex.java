@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// finding the structural bytes of a buffer eight bytes at a time, against testing every byte
+@State(Scope.Thread)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkCSVStructuralIndex
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // the average length of the fields
+    @Param({"4", "16", "64"})
+    private int fieldLength;
+
+    private byte[] buffer;
+    private CSVStructuralIndex index;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(0);
+        buffer = new byte[BUFFER_SIZE];
+        for (int i = 0; i < buffer.length; i++) {
+            int next = random.nextInt(fieldLength * 8);
+            buffer[i] = next == 0 ? (byte) '\n' : next < 8 ? (byte) ',' : (byte) ('a' + next % 26);
+        }
+        index = new CSVStructuralIndex((byte) ',');
+    }
+
+    @Benchmark
+    public long swar()
+    {
+        index.index(buffer, 0, buffer.length);
+        long sum = 0;
+        for (int position = index.next(0, buffer.length); position < buffer.length; position = index.next(position + 1, buffer.length)) {
+            sum += position;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long scalar()
+    {
+        long sum = 0;
+        for (int position = 0; position < buffer.length; position++) {
+            byte b = buffer[position];
+            if (b == ',' || b == '"' || b == '\n') {
+                sum += position;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int tokenize()
+            throws IOException
+    {
+        int fields = 0;
+        try (CSVTokenizer tokenizer = new CSVTokenizer(new ByteArrayInputStream(buffer), ',')) {
+            while (tokenizer.advance()) {
+                fields += tokenizer.getFieldCount();
+            }
+        }
+        return fields;
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkCSVStructuralIndex.class.getSimpleName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+
+public class TestBGZFInputStream
+{
+    private static final int RECORDS = 500;
+
+    @Test
+    public void testBlocksStartingAtRecords()
+            throws IOException
+    {
+        ImmutableList.Builder<Integer> blockStarts = ImmutableList.builder();
+        int offset = 0;
+        for (int i = 0; i < RECORDS; i++) {
+            if (i % 7 == 0) {
+                blockStarts.add(offset);
+            }
+            offset += record(i).length();
+        }
+        assertSplitsReadAllRecords(compress(blockStarts.build()));
+    }
+
+    @Test
+    public void testRecordsCrossingBlocks()
+            throws IOException
+    {
+        ImmutableList.Builder<Integer> blockStarts = ImmutableList.builder();
+        for (int offset = 0; offset < data().length; offset += 333) {
+            blockStarts.add(offset);
+        }
+        assertSplitsReadAllRecords(compress(blockStarts.build()));
+    }
+
+    @Test
+    public void testDecompress()
+            throws IOException
+    {
+        byte[] file = compress(ImmutableList.of(0, 100, 5000));
+        try (BGZFInputStream input = new BGZFInputStream(new ByteArrayInputStream(file), 0, file.length)) {
+            assertEquals(new String(readAll(input), UTF_8), new String(data(), UTF_8));
+            assertEquals(input.getRangeLength(), data().length);
+        }
+    }
+
+    // every way to cut the file in two ranges reads every record exactly once
+    private static void assertSplitsReadAllRecords(byte[] file)
+            throws IOException
+    {
+        ImmutableList.Builder<String> expected = ImmutableList.builder();
+        for (int i = 0; i < RECORDS; i++) {
+            expected.add(record(i));
+        }
+        for (int boundary = 1; boundary < file.length; boundary++) {
+            for (boolean readAhead : new boolean[] {false, true}) {
+                ImmutableList.Builder<String> records = ImmutableList.builder();
+                readRange(file, 0, boundary, readAhead, records);
+                readRange(file, boundary, file.length, readAhead, records);
+                assertEquals(records.build(), expected.build(), format("split at %s, read ahead: %s", boundary, readAhead));
+            }
+        }
+    }
+
+    // Reads a range the way CSVRecordReader does. Reading ahead, as through a PipelinedInputStream, the end
+    // of the range can be known before the record starting right after it is read.
+    private static void readRange(byte[] file, int start, int end, boolean readAhead, ImmutableList.Builder<String> records)
+            throws IOException
+    {
+        BGZFInputStream blocks = new BGZFInputStream(new ByteArrayInputStream(file, start, file.length - start), start, end);
+        InputStream input = blocks;
+        if (readAhead) {
+            input = new FilterInputStream(blocks)
+            {
+                @Override
+                public int read(byte[] buffer, int offset, int length)
+                        throws IOException
+                {
+                    int read = ByteStreams.read(in, buffer, offset, length);
+                    return read == 0 && length > 0 ? -1 : read;
+                }
+            };
+        }
+        try (CSVTokenizer tokenizer = new CSVTokenizer(input, ',')) {
+            if (start > 0) {
+                tokenizer.skipToNextRecord();
+            }
+            while (tokenizer.getConsumedBytes() < limit(blocks) && tokenizer.advance()) {
+                records.add(String.join(",", tokenizer.getStrings()) + "\n");
+            }
+        }
+    }
+
+    private static long limit(BGZFInputStream blocks)
+    {
+        long rangeLength = blocks.getRangeLength();
+        return rangeLength < 0 ? Long.MAX_VALUE : rangeLength + 1;
+    }
+
+    private static String record(int i)
+    {
+        return i + "," + "abcdefghijklmnopqrstuvwxyz".substring(0, i % 26) + "\n";
+    }
+
+    private static byte[] data()
+    {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < RECORDS; i++) {
+            data.append(record(i));
+        }
+        return data.toString().getBytes(UTF_8);
+    }
+
+    // writes a BGZF block for every start, and the empty block bgzip ends a file with
+    private static byte[] compress(List<Integer> blockStarts)
+    {
+        byte[] data = data();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int i = 0; i < blockStarts.size(); i++) {
+            int start = blockStarts.get(i);
+            int end = i + 1 < blockStarts.size() ? blockStarts.get(i + 1) : data.length;
+            writeBlock(output, data, start, end - start);
+        }
+        writeBlock(output, data, 0, 0);
+        return output.toByteArray();
+    }
+
+    private static void writeBlock(ByteArrayOutputStream output, byte[] data, int offset, int length)
+    {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        byte[] compressed = new byte[length + 1024];
+        int size = 0;
+        while (!deflater.finished()) {
+            size += deflater.deflate(compressed, size, compressed.length - size);
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        int blockSize = 18 + size + 8;
+        output.write(new byte[] {0x1f, (byte) 0x8b, 0x08, 0x04, 0, 0, 0, 0, 0, (byte) 0xff, 0x06, 0x00, 'B', 'C', 0x02, 0x00}, 0, 16);
+        writeShort(output, blockSize - 1);
+        output.write(compressed, 0, size);
+        writeInt(output, (int) crc.getValue());
+        writeInt(output, length);
+    }
+
+    private static void writeShort(ByteArrayOutputStream output, int value)
+    {
+        output.write(value);
+        output.write(value >>> 8);
+    }
+
+    private static void writeInt(ByteArrayOutputStream output, int value)
+    {
+        writeShort(output, value);
+        writeShort(output, value >>> 16);
+    }
+
+    private static byte[] readAll(BGZFInputStream input)
+            throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer, 0, buffer.length)) >= 0) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+}
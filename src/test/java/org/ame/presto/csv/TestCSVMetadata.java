@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnMetadata;
+import com.facebook.presto.spi.ConnectorTableHandle;
+import com.facebook.presto.spi.SchemaTableName;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static com.facebook.airlift.json.JsonCodec.listJsonCodec;
+import static com.facebook.airlift.json.JsonCodec.mapJsonCodec;
+import static com.facebook.presto.testing.TestingConnectorSession.SESSION;
+import static com.google.common.io.MoreFiles.deleteRecursively;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+
+public class TestCSVMetadata
+{
+    private Path base;
+    private CSVClient client;
+    private CSVMetadata metadata;
+
+    @BeforeClass
+    public void setUp()
+            throws IOException
+    {
+        base = Files.createTempDirectory("csv");
+        Files.createDirectories(base.resolve("schema"));
+        Files.write(base.resolve("schema").resolve("orders.csv"), "Order_ID,CustomerName,total\n1,Alice,10\n".getBytes(UTF_8));
+        Files.write(base.resolve("schema").resolve("repeated.csv"), "Id,ID,id\n1,2,3\n".getBytes(UTF_8));
+        CSVConfig config = new CSVConfig()
+                .setProtocol("file")
+                .setBase(base.toString());
+        client = new CSVClient(config, mapJsonCodec(String.class, listJsonCodec(CSVTable.class)));
+        metadata = new CSVMetadata(client, new CSVStatisticsProvider(client, config));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+            throws IOException
+    {
+        client.destroy();
+        deleteRecursively(base, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testMixedCaseHeader()
+    {
+        ConnectorTableHandle table = metadata.getTableHandle(SESSION, new SchemaTableName("schema", "orders"));
+        Map<String, ColumnHandle> columnHandles = metadata.getColumnHandles(SESSION, table);
+        assertEquals(columnHandles.keySet(), ImmutableSet.of("order_id", "customername", "total"));
+        // every column of the table metadata resolves to the handle of the same name and position
+        int position = 0;
+        for (ColumnMetadata column : metadata.getTableMetadata(SESSION, table).getColumns()) {
+            CSVColumnHandle columnHandle = (CSVColumnHandle) columnHandles.get(column.getName());
+            assertEquals(columnHandle.getColumnName(), column.getName());
+            assertEquals(columnHandle.getOrdinalPosition(), position++);
+            assertEquals(metadata.getColumnMetadata(SESSION, table, columnHandle), column);
+        }
+    }
+
+    @Test
+    public void testNamesDifferingInCase()
+    {
+        ConnectorTableHandle table = metadata.getTableHandle(SESSION, new SchemaTableName("schema", "repeated"));
+        assertEquals(metadata.getColumnHandles(SESSION, table).keySet(), ImmutableSet.of("id", "column_1", "column_2"));
+    }
+}
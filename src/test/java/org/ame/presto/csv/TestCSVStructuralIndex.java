@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static java.lang.String.format;
+import static org.testng.Assert.assertEquals;
+
+public class TestCSVStructuralIndex
+{
+    // structural bytes, a carriage return, ASCII and bytes with the high bit set
+    private static final byte[] ALPHABET = {',', '"', '\n', '\r', 'a', ';', (byte) 0xC3, (byte) 0xA9, (byte) 0x80, (byte) 0xFF, (byte) 0xAC, (byte) 0x8A};
+
+    @Test
+    public void testEveryOffset()
+    {
+        Random random = new Random(42);
+        for (byte delimiter : new byte[] {',', ';', '\t'}) {
+            for (int length = 0; length < 80; length++) {
+                for (int from = 0; from <= length; from++) {
+                    byte[] buffer = randomBytes(random, length + random.nextInt(8));
+                    CSVStructuralIndex index = new CSVStructuralIndex(delimiter);
+                    index.index(buffer, from, length);
+                    assertIndex(index, buffer, delimiter, from, length);
+                }
+            }
+        }
+    }
+
+    // a fill indexes the bytes appended after the ones that were indexed before
+    @Test
+    public void testRefills()
+    {
+        Random random = new Random(7);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            byte delimiter = ',';
+            byte[] buffer = randomBytes(random, 1 + random.nextInt(1000));
+            CSVStructuralIndex index = new CSVStructuralIndex(delimiter);
+            int indexed = 0;
+            // stale bits of a longer previous fill are cleared
+            index.index(randomBytes(random, buffer.length), 0, buffer.length);
+            while (indexed < buffer.length) {
+                int end = Math.min(buffer.length, indexed + 1 + random.nextInt(70));
+                index.index(buffer, indexed, end);
+                indexed = end;
+                assertIndex(index, buffer, delimiter, 0, indexed);
+            }
+        }
+    }
+
+    private static void assertIndex(CSVStructuralIndex index, byte[] buffer, byte delimiter, int from, int to)
+    {
+        int position = index.next(from, to);
+        for (int i = from; i < to; i++) {
+            byte b = buffer[i];
+            if (b == delimiter || b == '"' || b == '\n') {
+                assertEquals(position, i, format("structural byte %s of %s bytes indexed from %s", i, to, from));
+                position = index.next(i + 1, to);
+            }
+        }
+        assertEquals(position, to, format("no structural byte after %s of %s bytes indexed from %s", position, to, from));
+    }
+
+    private static byte[] randomBytes(Random random, int length)
+    {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return bytes;
+    }
+}
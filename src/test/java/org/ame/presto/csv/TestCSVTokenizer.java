@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.base.Strings.repeat;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+
+public class TestCSVTokenizer
+{
+    @Test
+    public void testFields()
+            throws IOException
+    {
+        assertEquals(readAll("a,b,c\n\"x,y\",\"say \"\"hi\"\"\",\r\n\"line\nbreak\",,z"), ImmutableList.of(
+                ImmutableList.of("a", "b", "c"),
+                ImmutableList.of("x,y", "say \"hi\"", ""),
+                ImmutableList.of("line\nbreak", "", "z")));
+    }
+
+    @Test
+    public void testRecordStartingAtSplitStart()
+            throws IOException
+    {
+        String data = "1,a\n2,b\n3,c\n";
+        assertEquals(readRange(data, 0, 4), ImmutableList.of(ImmutableList.of("1", "a")));
+        assertEquals(readRange(data, 4, 8), ImmutableList.of(ImmutableList.of("2", "b")));
+        assertEquals(readRange(data, 5, 12), ImmutableList.of(ImmutableList.of("3", "c")));
+    }
+
+    @Test
+    public void testQuotedLineBreakAcrossSplitStart()
+            throws IOException
+    {
+        String data = "1,\"x\ny\"\n2,\"z\"\n";
+        // the split starts right after the line break inside the quoted field
+        int start = data.indexOf('y');
+        assertEquals(readRange(data, 0, start), ImmutableList.of(ImmutableList.of("1", "x\ny")));
+        assertEquals(readRange(data, start, data.length()), ImmutableList.of(ImmutableList.of("2", "z")));
+    }
+
+    @Test
+    public void testSplitsReadAllRecords()
+            throws IOException
+    {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            data.append(i).append(",\"quoted ").append(i % 3 == 0 ? "\n" : ",").append(" value\",").append(repeat("x", i % 5)).append(i % 4 == 0 ? "\r\n" : "\n");
+        }
+        List<List<String>> expected = readAll(data.toString());
+        for (int boundary = 1; boundary < data.length(); boundary++) {
+            ImmutableList.Builder<List<String>> records = ImmutableList.builder();
+            records.addAll(readRange(data.toString(), 0, boundary));
+            records.addAll(readRange(data.toString(), boundary, data.length()));
+            assertEquals(records.build(), expected, format("split at %s", boundary));
+        }
+    }
+
+    // reads of random sizes refill the buffer at every alignment of the structural index
+    @Test
+    public void testRandomRecordsAcrossRefills()
+            throws IOException
+    {
+        Random random = new Random(3);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            List<List<String>> expected = new ArrayList<>();
+            StringBuilder data = new StringBuilder();
+            int records = 1 + random.nextInt(200);
+            for (int i = 0; i < records; i++) {
+                List<String> fields = new ArrayList<>();
+                int fieldCount = 1 + random.nextInt(6);
+                for (int field = 0; field < fieldCount; field++) {
+                    if (field > 0) {
+                        data.append(',');
+                    }
+                    fields.add(appendRandomField(random, data, iteration % 50 == 0 && i == 0 && field == 0 ? 100_000 : 12));
+                }
+                expected.add(fields);
+                data.append(random.nextBoolean() ? "\n" : "\r\n");
+            }
+            byte[] bytes = data.toString().getBytes(UTF_8);
+            assertEquals(readAll(new RandomChunkInputStream(bytes, random)), expected, "iteration " + iteration);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Cannot determine whether the split starts inside a quoted field.*")
+    public void testUnknownQuoteState()
+            throws IOException
+    {
+        // quotes next to delimiters and line breaks may open or close a field
+        readRange("1,\"\",\"\"\n" + repeat("2,x\n", 20000), 2, 100);
+    }
+
+    private static List<List<String>> readAll(String data)
+            throws IOException
+    {
+        return readRange(data, 0, data.length());
+    }
+
+    private static List<List<String>> readAll(InputStream input)
+            throws IOException
+    {
+        ImmutableList.Builder<List<String>> records = ImmutableList.builder();
+        try (CSVTokenizer tokenizer = new CSVTokenizer(input, ',')) {
+            while (tokenizer.advance()) {
+                records.add(ImmutableList.copyOf(tokenizer.getStrings()));
+            }
+        }
+        return records.build();
+    }
+
+    // appends a field of up to maxLength characters, quoted when it contains structural characters, and returns its value
+    private static String appendRandomField(Random random, StringBuilder data, int maxLength)
+    {
+        String characters = random.nextBoolean() ? "ab\u00e9\u4e2d" : "ab,\"\r\n\u00e9";
+        StringBuilder value = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            value.append(characters.charAt(random.nextInt(characters.length())));
+        }
+        String field = value.toString();
+        if (field.matches("(?s).*[,\"\r\n].*") || random.nextInt(4) == 0) {
+            data.append('"').append(field.replace("\"", "\"\"")).append('"');
+        }
+        else {
+            data.append(field);
+        }
+        return field;
+    }
+
+    private static class RandomChunkInputStream
+            extends InputStream
+    {
+        private final byte[] bytes;
+        private final Random random;
+        private int position;
+
+        public RandomChunkInputStream(byte[] bytes, Random random)
+        {
+            this.bytes = bytes;
+            this.random = random;
+        }
+
+        @Override
+        public int read()
+        {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+        {
+            if (position == bytes.length) {
+                return -1;
+            }
+            int read = Math.min(Math.min(length, bytes.length - position), 1 + random.nextInt(20));
+            System.arraycopy(bytes, position, buffer, offset, read);
+            position += read;
+            return read;
+        }
+    }
+
+    // reads a split the way CSVRecordReader reads an uncompressed file, from one byte before its start
+    private static List<List<String>> readRange(String data, int start, int end)
+            throws IOException
+    {
+        byte[] bytes = data.getBytes(UTF_8);
+        int offset = start == 0 ? 0 : start - 1;
+        ImmutableList.Builder<List<String>> records = ImmutableList.builder();
+        try (CSVTokenizer tokenizer = new CSVTokenizer(new ByteArrayInputStream(bytes, offset, bytes.length - offset), ',')) {
+            if (start > 0) {
+                tokenizer.skipToNextRecord();
+            }
+            while (tokenizer.getConsumedBytes() < end - offset && tokenizer.advance()) {
+                records.add(ImmutableList.copyOf(tokenizer.getStrings()));
+            }
+        }
+        return records.build();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv;
+
+import com.google.common.hash.HashFunction;
+import org.testng.annotations.Test;
+
+import static com.google.common.hash.Hashing.murmur3_128;
+import static java.lang.String.format;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestHyperLogLog
+{
+    private static final HashFunction HASH = murmur3_128();
+    // three times the standard error of 1.04 / sqrt(2^10)
+    private static final double MAX_ERROR = 0.1;
+
+    @Test
+    public void testEmpty()
+    {
+        assertEquals(new HyperLogLog().cardinality(), 0);
+    }
+
+    @Test
+    public void testCardinality()
+    {
+        for (int count : new int[] {1, 10, 100, 1000, 10000, 100000, 1000000}) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < count; i++) {
+                sketch.add(HASH.hashLong(i).asLong());
+            }
+            assertCardinality(sketch, count);
+        }
+    }
+
+    @Test
+    public void testDuplicates()
+    {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 100000; i++) {
+            sketch.add(HASH.hashLong(i % 1000).asLong());
+        }
+        assertCardinality(sketch, 1000);
+    }
+
+    @Test
+    public void testMerge()
+    {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 60000; i++) {
+            first.add(HASH.hashLong(i).asLong());
+            second.add(HASH.hashLong(i + 40000).asLong());
+        }
+        first.merge(second);
+        assertCardinality(first, 100000);
+    }
+
+    private static void assertCardinality(HyperLogLog sketch, long expected)
+    {
+        long actual = sketch.cardinality();
+        assertTrue(Math.abs(actual - expected) <= expected * MAX_ERROR, format("expected about %s distinct values, but got %s", expected, actual));
+    }
+}
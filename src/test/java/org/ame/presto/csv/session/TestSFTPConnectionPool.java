@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.csv.session;
+
+import com.jcraft.jsch.ChannelSftp;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static com.google.common.io.MoreFiles.deleteRecursively;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestSFTPConnectionPool
+{
+    private static final String USERNAME = "presto";
+    private static final String PASSWORD = "secret";
+
+    private Path root;
+    private SshServer server;
+
+    @BeforeClass
+    public void setUp()
+            throws IOException
+    {
+        root = Files.createTempDirectory("sftp");
+        server = SshServer.setUpDefaultServer();
+        server.setHost("localhost");
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        server.setPasswordAuthenticator((username, password, session) -> USERNAME.equals(username) && PASSWORD.equals(password));
+        server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        server.start();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+            throws IOException
+    {
+        server.stop(true);
+        deleteRecursively(root, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testChannelReuse()
+            throws Exception
+    {
+        try (SFTPConnectionPool pool = createPool(2, 60_000, 60_000, 1000)) {
+            ChannelSftp first = pool.borrow();
+            pool.release(first);
+            ChannelSftp second = pool.borrow();
+            assertSame(second, first);
+            // a channel is lent to one borrower at a time
+            ChannelSftp third = pool.borrow();
+            assertNotSame(third, second);
+            pool.release(second);
+            pool.release(third);
+        }
+    }
+
+    @Test
+    public void testDeadChannelEviction()
+            throws Exception
+    {
+        // without keep-alive messages every idle channel is checked with a round trip before it is lent again
+        try (SFTPConnectionPool pool = createPool(1, 60_000, 0, 1000)) {
+            ChannelSftp channel = pool.borrow();
+            pool.release(channel);
+            for (Session session : new ArrayList<>(server.getActiveSessions())) {
+                session.close(true);
+            }
+            ChannelSftp replacement = pool.borrow();
+            assertNotSame(replacement, channel);
+            assertTrue(replacement.isConnected());
+            assertTrue(replacement.realpath(".").startsWith("/"));
+            pool.release(replacement);
+        }
+    }
+
+    @Test
+    public void testIdleChannelEviction()
+            throws Exception
+    {
+        try (SFTPConnectionPool pool = createPool(1, 100, 60_000, 1000)) {
+            ChannelSftp channel = pool.borrow();
+            pool.release(channel);
+            // idle channels are evicted every second at the earliest
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (channel.isConnected() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertFalse(channel.isConnected());
+            ChannelSftp replacement = pool.borrow();
+            assertNotSame(replacement, channel);
+            pool.release(replacement);
+        }
+    }
+
+    @Test
+    public void testExhaustionTimeout()
+            throws Exception
+    {
+        try (SFTPConnectionPool pool = createPool(1, 60_000, 60_000, 200)) {
+            ChannelSftp channel = pool.borrow();
+            assertNull(pool.tryBorrow());
+            long start = System.nanoTime();
+            try {
+                pool.borrow();
+                fail("expected the pool to time out");
+            }
+            catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Timed out waiting for a sftp connection"), e.getMessage());
+            }
+            assertTrue(System.nanoTime() - start >= 200_000_000L);
+            // the connection is free again once it is released
+            pool.release(channel);
+            ChannelSftp next = pool.tryBorrow();
+            assertSame(next, channel);
+            pool.release(next);
+        }
+    }
+
+    private SFTPConnectionPool createPool(int maxConnections, long idleTimeoutMillis, long keepAliveIntervalMillis, long maxWaitMillis)
+    {
+        return new SFTPConnectionPool("localhost", server.getPort(), USERNAME, PASSWORD, maxConnections, idleTimeoutMillis, keepAliveIntervalMillis, maxWaitMillis);
+    }
+}